@@ -0,0 +1,417 @@
+package ver2;
+
+/**
+ *
+ * Attacks.class
+ *
+ * Precomputed attack tables for Position.
+ *
+ * Every table is built once when the class is loaded, so move
+ * generation is reduced to table lookups and bit operations
+ * instead of walking movement vectors square by square.
+ *
+ * Sliding pieces use magic bitboards: the blockers on a piece's rays
+ * are multiplied by a magic number found at startup, which gives an
+ * index into a table of precomputed attacks. Every table entry is
+ * checked against the ray walk when it is built, and a square that
+ * no magic is found for keeps using the ray walk.
+ */
+public class Attacks {
+
+    /**
+     * Move pattern of king, same as Rule.NORMAL_MOVE.
+     * (Kept here so the tables never load the javafx side Rule class)
+     */
+    private static final int[][] KING_MOVE = {
+            {1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}
+    };
+
+    /**
+     * Move pattern of knight, same as Rule.KNIGHT_MOVE.
+     */
+    private static final int[][] KNIGHT_MOVE = {
+            {2, 1}, {1, 2}, {-1, 2}, {-2, 1}, {-2, -1}, {-1, -2}, {1, -2}, {2, -1}
+    };
+
+    /**
+     * Ray directions of rook.
+     */
+    private static final int[][] ROOK_MOVE = {
+            {1, 0}, {0, 1}, {-1, 0}, {0, -1}
+    };
+
+    /**
+     * Ray directions of bishop.
+     */
+    private static final int[][] BISHOP_MOVE = {
+            {1, 1}, {-1, 1}, {-1, -1}, {1, -1}
+    };
+
+    /**
+     * Random magic candidates tried per square before falling back to the ray walk.
+     */
+    private static final int MAGIC_TRIES = 1000000;
+
+    /**
+     * Squares a king attacks from each square.
+     */
+    private static final long[] KING = new long[64];
+
+    /**
+     * Squares a knight attacks from each square.
+     */
+    private static final long[] KNIGHT = new long[64];
+
+    /**
+     * Squares a pawn attacks from each square, indexed by color.
+     */
+    private static final long[][] PAWN = new long[2][64];
+
+    /**
+     * Square a pawn pushes to from each square, indexed by color.
+     */
+    private static final long[][] PAWN_PUSH = new long[2][64];
+
+    /**
+     * Square a pawn reaches with its two square first move, indexed by color.
+     */
+    private static final long[][] PAWN_DOUBLE_PUSH = new long[2][64];
+
+    /**
+     * Squares whose occupancy can block a rook on each square.
+     */
+    private static final long[] ROOK_MASK = new long[64];
+
+    /**
+     * Squares whose occupancy can block a bishop on each square.
+     */
+    private static final long[] BISHOP_MASK = new long[64];
+
+    /**
+     * Magic multipliers of rook on each square.
+     */
+    private static final long[] ROOK_MAGIC = new long[64];
+
+    /**
+     * Magic multipliers of bishop on each square.
+     */
+    private static final long[] BISHOP_MAGIC = new long[64];
+
+    /**
+     * Shift that turns a rook magic product into a table index.
+     */
+    private static final int[] ROOK_SHIFT = new int[64];
+
+    /**
+     * Shift that turns a bishop magic product into a table index.
+     */
+    private static final int[] BISHOP_SHIFT = new int[64];
+
+    /**
+     * Rook attacks indexed by magic index, or null to use the ray walk.
+     */
+    private static final long[][] ROOK_TABLE = new long[64][];
+
+    /**
+     * Bishop attacks indexed by magic index, or null to use the ray walk.
+     */
+    private static final long[][] BISHOP_TABLE = new long[64][];
+
+    /**
+     * Squares strictly between two squares on the same line, or 0.
+     */
+    private static final long[][] BETWEEN = new long[64][64];
+
+    /**
+     * Whole board line through two squares, or 0 if they are not on one.
+     */
+    private static final long[][] LINE = new long[64][64];
+
+    /**
+     * State of the random generator for magic candidates.
+     * (Fixed seed, so every startup finds the same magics)
+     */
+    private static long seed = 0x2526L;
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            KING[square] = mask(square, KING_MOVE);
+            KNIGHT[square] = mask(square, KNIGHT_MOVE);
+            PAWN[Position.RED][square] = mask(square, new int[][] {{1, 1}, {-1, 1}});
+            PAWN[Position.BLUE][square] = mask(square, new int[][] {{1, -1}, {-1, -1}});
+            PAWN_PUSH[Position.RED][square] = mask(square, new int[][] {{0, 1}});
+            PAWN_PUSH[Position.BLUE][square] = mask(square, new int[][] {{0, -1}});
+            if (Position.row(square) == 1)
+                PAWN_DOUBLE_PUSH[Position.RED][square] = 1L << (square + 16);
+            if (Position.row(square) == 6)
+                PAWN_DOUBLE_PUSH[Position.BLUE][square] = 1L << (square - 16);
+            ROOK_MASK[square] = blockerMask(square, ROOK_MOVE);
+            BISHOP_MASK[square] = blockerMask(square, BISHOP_MOVE);
+            ROOK_SHIFT[square] = 64 - Long.bitCount(ROOK_MASK[square]);
+            BISHOP_SHIFT[square] = 64 - Long.bitCount(BISHOP_MASK[square]);
+            ROOK_TABLE[square] = findMagic(square, ROOK_MOVE, ROOK_MASK, ROOK_SHIFT, ROOK_MAGIC);
+            BISHOP_TABLE[square] = findMagic(square, BISHOP_MOVE, BISHOP_MASK, BISHOP_SHIFT, BISHOP_MAGIC);
+        }
+        for (int from = 0; from < 64; from++)
+            for (int to = 0; to < 64; to++) {
+                long bit = 1L << to;
+                if ((rook(from, 0) & bit) != 0) {
+                    BETWEEN[from][to] = rook(from, bit) & rook(to, 1L << from);
+                    LINE[from][to] = rook(from, 0) & rook(to, 0) | 1L << from | bit;
+                } else if ((bishop(from, 0) & bit) != 0) {
+                    BETWEEN[from][to] = bishop(from, bit) & bishop(to, 1L << from);
+                    LINE[from][to] = bishop(from, 0) & bishop(to, 0) | 1L << from | bit;
+                }
+            }
+    }
+
+    /**
+     * Builds the mask of squares one step away along each movement.
+     * @param square
+     *              the square to start from.
+     * @param movement
+     *              movement pattern as {col, row} offsets.
+     * @return mask of the squares on the board.
+     */
+    private static long mask(int square, int[][] movement) {
+        long mask = 0;
+        for (int[] move : movement) {
+            int col = Position.col(square) + move[0];
+            int row = Position.row(square) + move[1];
+            if (col >= 0 && col <= 7 && row >= 0 && row <= 7)
+                mask |= 1L << Position.square(col, row);
+        }
+        return mask;
+    }
+
+    /**
+     * Walks each ray from a square until it leaves the board
+     * or meets a blocker, which is included.
+     * @param square
+     *              the square to start from.
+     * @param movement
+     *              ray directions as {col, row} offsets.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return mask of the attacked squares.
+     */
+    private static long slide(int square, int[][] movement, long occupied) {
+        long attacks = 0;
+        for (int[] move : movement) {
+            int col = Position.col(square) + move[0];
+            int row = Position.row(square) + move[1];
+            while (col >= 0 && col <= 7 && row >= 0 && row <= 7) {
+                long bit = 1L << Position.square(col, row);
+                attacks |= bit;
+                if ((occupied & bit) != 0)
+                    break;
+                col += move[0];
+                row += move[1];
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Builds the mask of squares that can block the rays from a square.
+     * The last square of each ray never changes the attacks, so it is left out.
+     * @param square
+     *              the square to start from.
+     * @param movement
+     *              ray directions as {col, row} offsets.
+     * @return mask of the blocking squares.
+     */
+    private static long blockerMask(int square, int[][] movement) {
+        long mask = 0;
+        for (int[] move : movement) {
+            int col = Position.col(square) + move[0];
+            int row = Position.row(square) + move[1];
+            while (col + move[0] >= 0 && col + move[0] <= 7
+                    && row + move[1] >= 0 && row + move[1] <= 7) {
+                mask |= 1L << Position.square(col, row);
+                col += move[0];
+                row += move[1];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Searches for a magic number of a square and fills its attack table.
+     * Each candidate is verified against the ray walk for every blocker set.
+     * @param square
+     *              the square of the sliding piece.
+     * @param movement
+     *              ray directions as {col, row} offsets.
+     * @param masks
+     *              blocker masks of the piece.
+     * @param shifts
+     *              index shifts of the piece.
+     * @param magics
+     *              magic numbers of the piece, filled in for this square.
+     * @return the verified attack table, or null if no magic was found.
+     */
+    private static long[] findMagic(int square, int[][] movement,
+            long[] masks, int[] shifts, long[] magics) {
+        long mask = masks[square];
+        int size = 1 << Long.bitCount(mask);
+        long[] blockers = new long[size];
+        long[] attacks = new long[size];
+        long subset = 0;
+        for (int i = 0; i < size; i++) {
+            blockers[i] = subset;
+            attacks[i] = slide(square, movement, subset);
+            subset = (subset - mask) & mask;
+        }
+        long[] table = new long[size];
+        int[] used = new int[size];
+        for (int attempt = 1; attempt <= MAGIC_TRIES; attempt++) {
+            long magic = random() & random() & random();
+            if (Long.bitCount((mask * magic) >>> 56) < 6)
+                continue;
+            boolean verified = true;
+            for (int i = 0; i < size && verified; i++) {
+                int index = (int) ((blockers[i] * magic) >>> shifts[square]);
+                if (used[index] != attempt) {
+                    used[index] = attempt;
+                    table[index] = attacks[i];
+                } else if (table[index] != attacks[i])
+                    verified = false;
+            }
+            if (verified) {
+                magics[square] = magic;
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the next number of the xorshift64* random generator.
+     * @return random number.
+     */
+    private static long random() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return seed * 2685821657736338717L;
+    }
+
+    /**
+     * Return the squares a rook attacks on given occupancy.
+     * @param square
+     *              the square of the rook.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return attack mask.
+     */
+    public static long rook(int square, long occupied) {
+        long[] table = ROOK_TABLE[square];
+        if (table == null)
+            return slide(square, ROOK_MOVE, occupied);
+        return table[(int) (((occupied & ROOK_MASK[square]) * ROOK_MAGIC[square]) >>> ROOK_SHIFT[square])];
+    }
+
+    /**
+     * Return the squares a bishop attacks on given occupancy.
+     * @param square
+     *              the square of the bishop.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return attack mask.
+     */
+    public static long bishop(int square, long occupied) {
+        long[] table = BISHOP_TABLE[square];
+        if (table == null)
+            return slide(square, BISHOP_MOVE, occupied);
+        return table[(int) (((occupied & BISHOP_MASK[square]) * BISHOP_MAGIC[square]) >>> BISHOP_SHIFT[square])];
+    }
+
+    /**
+     * Return the squares a queen attacks on given occupancy.
+     * @param square
+     *              the square of the queen.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return attack mask.
+     */
+    public static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    /**
+     * Return the squares strictly between two squares on the same
+     * row, column or diagonal.
+     * @param from
+     *              one end square.
+     * @param to
+     *              the other end square.
+     * @return mask of the squares between, or 0 if they are not on one line.
+     */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+
+    /**
+     * Return the whole board line through two squares.
+     * @param from
+     *              one square on the line.
+     * @param to
+     *              another square on the line.
+     * @return mask of the line, or 0 if they are not on one line.
+     */
+    public static long line(int from, int to) {
+        return LINE[from][to];
+    }
+
+    /**
+     * Return the squares a king attacks.
+     * @param square
+     *              the square of the king.
+     * @return attack mask.
+     */
+    public static long king(int square) {
+        return KING[square];
+    }
+
+    /**
+     * Return the squares a knight attacks.
+     * @param square
+     *              the square of the knight.
+     * @return attack mask.
+     */
+    public static long knight(int square) {
+        return KNIGHT[square];
+    }
+
+    /**
+     * Return the squares a pawn attacks.
+     * @param color
+     *              color of the pawn.
+     * @param square
+     *              the square of the pawn.
+     * @return attack mask.
+     */
+    public static long pawn(int color, int square) {
+        return PAWN[color][square];
+    }
+
+    /**
+     * Return the squares a pawn can push to on given occupancy,
+     * including its two square first move.
+     * @param color
+     *              color of the pawn.
+     * @param square
+     *              the square of the pawn.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return push mask.
+     */
+    public static long pawnPush(int color, int square, long occupied) {
+        long push = PAWN_PUSH[color][square] & ~occupied;
+        if (push != 0)
+            push |= PAWN_DOUBLE_PUSH[color][square] & ~occupied;
+        return push;
+    }
+
+}
@@ -0,0 +1,301 @@
+package ver2;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * Benchmark.class
+ *
+ * Headless throughput benchmark of the rule engine on a fixed corpus
+ * of positions: the starting position, a busy middlegame and the test
+ * setups kept in Board.setBoard() (checkmate, castling, promotion and
+ * En Passant).
+ *
+ * The search benchmark reports nodes per second of the computer
+ * opponent with 1, 2, 4 and so on up to all available threads, to
+ * show how Lazy SMP scales. The latency benchmark plays timed moves
+ * under a latency ceiling and reports their percentiles.
+ *
+ * Each benchmark is warmed up first so the JIT has compiled it, then
+ * timed over several rounds and reported in operations per second.
+ *
+ * Usage: java ver2.Benchmark [seconds per round]
+ */
+public class Benchmark {
+
+    /**
+     * Number of warm up rounds before measuring.
+     */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * Number of measured rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Time the search benchmark searches each corpus position, in milliseconds.
+     */
+    private static final int SEARCH_TIME = 100;
+
+    /**
+     * Size of the search benchmark's transposition table, in megabytes.
+     */
+    private static final int SEARCH_TABLE_SIZE = 64;
+
+    /**
+     * Latency ceiling of the latency benchmark, in milliseconds.
+     */
+    private static final int LATENCY_CEILING = 50;
+
+    /**
+     * Number of moves timed by the latency benchmark.
+     */
+    private static final int LATENCY_MOVES = 300;
+
+    /**
+     * Fixed corpus of positions every benchmark runs on.
+     */
+    private static final Position[] CORPUS = corpus();
+
+    /**
+     * Keeps results alive so the JIT cannot remove the work.
+     */
+    private static long sink;
+
+    /**
+     * Runs every benchmark on the corpus.
+     * @param args
+     *              command line arguments.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+        System.out.println("corpus: " + CORPUS.length + " positions");
+        run("legal move generation", seconds, Benchmark::generateAll);
+        run("getCheckFilteredMove per piece", seconds, Benchmark::generatePerPiece);
+        run("isCheckmate", seconds, Benchmark::checkmate);
+        run("perft 3", seconds, Benchmark::perft);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+            Search search = new Search(new TranspositionTable(SEARCH_TABLE_SIZE), threads);
+            run("search nodes, " + threads + " threads", seconds, () -> search(search));
+            search.shutdown();
+        }
+        latency();
+        System.out.println("checksum: " + sink);
+    }
+
+    /**
+     * Warms up and measures one benchmark, then prints its throughput.
+     * @param name
+     *              name of the benchmark.
+     * @param seconds
+     *              length of each measured round.
+     * @param operation
+     *              one pass over the corpus, returning its operation count.
+     */
+    private static void run(String name, double seconds, LongSupplier operation) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            round(seconds / 5, operation);
+        double total = 0;
+        double best = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            double rate = round(seconds, operation);
+            total += rate;
+            best = Math.max(best, rate);
+        }
+        System.out.printf("%-32s %,14.0f ops/s (best %,.0f)%n", name, total / ROUNDS, best);
+    }
+
+    /**
+     * Repeats an operation for a given time.
+     * @param seconds
+     *              length of the round.
+     * @param operation
+     *              the operation to repeat.
+     * @return operations per second.
+     */
+    private static double round(double seconds, LongSupplier operation) {
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            ops += operation.getAsLong();
+            now = System.nanoTime();
+        } while (now < end);
+        return ops * 1e9 / (now - start);
+    }
+
+    /* Benchmarks */
+
+    /**
+     * Generates all legal moves of every corpus position.
+     * @return number of positions.
+     */
+    private static long generateAll() {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        for (Position position : CORPUS)
+            sink += MoveGenerator.generate(position, moves);
+        return CORPUS.length;
+    }
+
+    /**
+     * Gets the legal moves of every piece of the team to move, the way
+     * Rule.getCheckFilteredMove answers a click on each piece.
+     * @return number of pieces.
+     */
+    private static long generatePerPiece() {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        long pieces = 0;
+        for (Position position : CORPUS)
+            for (long own = position.pieces(position.getSide()); own != 0; own &= own - 1) {
+                int from = Long.numberOfTrailingZeros(own);
+                int count = MoveGenerator.generate(position, moves);
+                for (int i = 0; i < count; i++)
+                    if (Move.from(moves[i]) == from)
+                        sink++;
+                pieces++;
+            }
+        return pieces;
+    }
+
+    /**
+     * Checks every corpus position for checkmate, the way Rule.isCheckmate does.
+     * @return number of positions.
+     */
+    private static long checkmate() {
+        for (Position position : CORPUS)
+            if (position.checkers() != 0 && MoveGenerator.hasNoMove(position))
+                sink++;
+        return CORPUS.length;
+    }
+
+    /**
+     * Counts the move tree of every corpus position three moves deep.
+     * @return number of leaf nodes.
+     */
+    private static long perft() {
+        long nodes = 0;
+        for (Position position : CORPUS)
+            nodes += Perft.perft(position, 3);
+        return nodes;
+    }
+
+    /**
+     * Searches every corpus position for a fixed time.
+     * @param search
+     *              the search to run.
+     * @return number of nodes visited on all threads.
+     */
+    private static long search(Search search) {
+        long nodes = 0;
+        for (Position position : CORPUS) {
+            sink += search.search(position, SEARCH_TIME, Search.MAX_PLY);
+            nodes += search.getNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * Times engine moves on the corpus with a clock of one minute plus
+     * one second a move, under LATENCY_CEILING, then prints the 50th
+     * and 99th percentile and the slowest move.
+     */
+    private static void latency() {
+        Search search = new Search(new TranspositionTable(SEARCH_TABLE_SIZE));
+        TimeControl time = new TimeControl(60000, 1000, 0, LATENCY_CEILING);
+        long[] latencies = new long[LATENCY_MOVES];
+        for (int i = 0; i < LATENCY_MOVES; i++) {
+            long start = System.nanoTime();
+            sink += search.search(CORPUS[i % CORPUS.length], time, Search.MAX_PLY);
+            latencies[i] = System.nanoTime() - start;
+        }
+        search.shutdown();
+        Arrays.sort(latencies);
+        System.out.printf("%-32s p50 %.1f ms, p99 %.1f ms, max %.1f ms (ceiling %d ms)%n", "search latency",
+                latencies[LATENCY_MOVES / 2] / 1e6, latencies[LATENCY_MOVES * 99 / 100] / 1e6,
+                latencies[LATENCY_MOVES - 1] / 1e6, LATENCY_CEILING);
+    }
+
+    /* Corpus */
+
+    /**
+     * Builds the corpus of positions.
+     * @return the corpus.
+     */
+    private static Position[] corpus() {
+        Position start = Position.start();
+        Position middlegame = diagram(Position.BLUE,
+                "r...k..r",
+                "p.ppqpb.",
+                "bn..pnp.",
+                "...PN...",
+                ".p..P...",
+                "..N..Q.p",
+                "PPPBBPPP",
+                "R...K..R");
+        middlegame.setCastling(Position.BLUE_CASTLING_H | Position.BLUE_CASTLING_A
+                | Position.RED_CASTLING_H | Position.RED_CASTLING_A);
+        Position checkmate = diagram(Position.RED,
+                "Q......k",
+                ".....ppp",
+                "........",
+                "........",
+                "........",
+                "........",
+                "........",
+                "....K...");
+        Position castling = diagram(Position.BLUE,
+                "...k....",
+                ".......P",
+                "........",
+                "........",
+                "........",
+                ".q......",
+                "........",
+                "R...K..R");
+        castling.setCastling(Position.BLUE_CASTLING_H | Position.BLUE_CASTLING_A);
+        Position promotion = diagram(Position.BLUE,
+                "...k....",
+                ".....PPP",
+                "........",
+                "........",
+                "........",
+                "........",
+                "........",
+                "....K...");
+        Position enPassant = diagram(Position.BLUE,
+                "...k....",
+                "........",
+                "........",
+                "........",
+                "...p....",
+                "........",
+                "..P.P...",
+                "....K...");
+        return new Position[] {start, middlegame, checkmate, castling, promotion, enPassant};
+    }
+
+    /**
+     * Builds a position from a diagram in the format of Position.toString(),
+     * row 0 first: upper case letters are blue pieces, lower case red ones.
+     * @param side
+     *              color of the team to move.
+     * @param rows
+     *              eight rows of eight characters.
+     * @return the position.
+     */
+    private static Position diagram(int side, String... rows) {
+        Position position = new Position();
+        for (int row = 0; row < 8; row++)
+            for (int col = 0; col < 8; col++) {
+                int piece = "PNBRQKpnbrqk".indexOf(rows[row].charAt(col));
+                if (piece != Position.EMPTY)
+                    position.put(piece, Position.square(col, row));
+            }
+        position.setSide(side);
+        return position;
+    }
+
+}
@@ -32,4 +32,13 @@ public class Bishop extends Chess {
         setImageAddress(isRed?"Bishop-l.png":"Bishop-d.png");
     }
 
+    /**
+     * Return the type of this Bishop.
+     * @return Position.BISHOP
+     */
+    @Override
+    public int getType() {
+        return Position.BISHOP;
+    }
+
 }
@@ -1,5 +1,8 @@
 package ver2;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import javafx.event.ActionEvent;
 import javafx.scene.layout.GridPane;
@@ -19,12 +22,24 @@ import javafx.scene.layout.GridPane;
  * @author Zhuo (Cody) Ning
  * @version 2018
  */
-public class Board extends GridPane implements Serializable {
-    
+public class Board extends GridPane {
+
+    /**
+     * Size of the computer opponent's transposition table, in megabytes.
+     */
+    private static final int COMPUTER_TABLE_SIZE = 16;
+
+    /**
+     * Opening book file of the computer opponent, used if it exists
+     * (made with java ver2.OpeningBook book.bin file.pgn...).
+     */
+    private static final String BOOK_FILE = "book.bin";
+
     /**
-     * serialVersionUID
+     * Computer opponent shared by every game against it, so its threads
+     * and transposition table are made once; null until the first game.
      */
-    private static final long serialVersionUID = 1L;
+    private static Search computer;
 
     /**
      * 8x8 Square objects to simulate 8x8 squares on chess board.
@@ -42,31 +57,62 @@ public class Board extends GridPane implements Serializable {
     private Square selectedSquare;
     
     /**
-     * Indicates whether the current turn is red team's turn when game load and safe.
+     * Rule of the game on this board.
      */
-    private boolean isRedTurn;
+    private Rule rule;
     
     /**
-     * Indicates whether red team can perform special move castling when game load and safe.
+     * Indicates whether the red team is played by the computer.
      */
-    private boolean redCastling;
+    private boolean vsComputer;
     
     /**
-     * Indicates whether blue team can perform special move castling when game load and safe.
+     * 
+     * Constructs an object of type Board.
+     * Puts all squares on GridPane to form the chess board.
+     * Then setup all chess pieces on the chess board and pass all
+     * the squares(as a board) to Rule.class to setup the game rule.
      */
-    private boolean blueCastling;
+    public Board() {
+        this(false);
+    }
     
     /**
      * 
      * Constructs an object of type Board.
-     * Pass all the squares(as a board) to Rule.class to setup the game rule.
-     * Then puts all squares on GridPane to form the chess board.
-     * Finally setup all chess pieces on the chess board.
+     * Same as Board(), but the red team can be played by the computer.
+     * @param vsComputer
+     *              whether the red team is played by the computer.
      */
-    public Board() {
+    public Board(boolean vsComputer) {
         
-        Rule.setBoardRule(squares, false);
+        this.vsComputer = vsComputer;
+        setSquares();
+        setBoard();
+        setComputer();
+    }
+    
+    /**
+     * 
+     * Constructs an object of type Board for a game in progress.
+     * Puts all squares on GridPane and renders the game position on them.
+     * @param position
+     *              the game position, with its moves made on it.
+     * @param vsComputer
+     *              whether the red team is played by the computer.
+     */
+    public Board(Position position, boolean vsComputer) {
         
+        this.vsComputer = vsComputer;
+        setSquares();
+        rule = new Rule(squares, position);
+        setComputer();
+    }
+    
+    /**
+     * Puts all squares on GridPane to form the chess board.
+     */
+    private void setSquares() {
         for(int i = 0; i < squares.length; i++) {
             
             for(int j = 0; j < squares[i].length; j++) {
@@ -78,30 +124,42 @@ public class Board extends GridPane implements Serializable {
                 add(squares[i][j], i, j);
             }
         }
-        setBoard();
     }
     
     /**
-     * Restore board feature when load from previous game.
+     * Lets the computer play the red team if this is a game against it,
+     * with the opening book and endgame tables if there are any.
      */
-    public void restore() {
-
-        Rule.setBoardRule(squares, isRedTurn);
-        Rule.setRedCastling(redCastling);
-        Rule.setBlueCastling(blueCastling);
-        
-        for(int i = 0; i < squares.length; i++) {
-            
-            for(int j = 0; j < squares[i].length; j++) {
-                
-                squares[i][j].setUp();
-                squares[i][j].setStyle(((i + j) % 2 == 0) ?
-                        "-fx-background-color: #2F4F4F; " : "-fx-background-color: BLACK;");
-                squares[i][j].setOnAction(this::selectSquare);
-                add(squares[i][j], i, j);
+    private void setComputer() {
+        if (!vsComputer)
+            return;
+        Path book = Paths.get(BOOK_FILE);
+        if (Files.exists(book)) {
+            try {
+                rule.setBook(OpeningBook.open(book));
+            } catch (IOException exc) {
+                exc.printStackTrace();
             }
         }
-        
+        Search search = computer();
+        search.newGame();
+        rule.setComputer(search, true);
+    }
+
+    /**
+     * Gets the computer opponent shared by every game, making it with
+     * the endgame tables, if there are any, for the first game.
+     * @return the shared search
+     */
+    private static synchronized Search computer() {
+        if (computer == null) {
+            computer = new Search(new TranspositionTable(COMPUTER_TABLE_SIZE),
+                    Runtime.getRuntime().availableProcessors());
+            Path tablebases = Paths.get(TablebaseGenerator.DIRECTORY);
+            if (Files.isDirectory(tablebases))
+                computer.setTablebase(Tablebase.open(tablebases));
+        }
+        return computer;
     }
     
     /**
@@ -130,11 +188,12 @@ public class Board extends GridPane implements Serializable {
             selectedChess = null;
         } else if (selecting.getChess() != null &&
                 selectedSquare.getChess().isRed() == selecting.getChess().isRed()) {
-            if(Rule.castling(selectedSquare, selecting)) {
+            if(rule.castling(selectedSquare, selecting)) {
+                rule.stopPondering();
                 deHightLightALl();
                 selectedSquare = null;            
                 selectedChess = null;
-                Rule.afterMove(selecting);
+                rule.afterMove(selecting);
             } else {
                 deHightLightALl();
                 selectedSquare = null;            
@@ -153,8 +212,8 @@ public class Board extends GridPane implements Serializable {
      *                  player clicking square.
      */
     private void select(Square selecting) {
-        if (Rule.canIselect(selecting)) {
-            Rule.beforeMove(selecting); //<- polymorphic call starting here, go to(Rule line 153)
+        if (rule.canIselect(selecting)) {
+            rule.beforeMove(selecting);
             selectedChess = selecting.getChess();
             selectedSquare = selecting;
         }
@@ -162,20 +221,20 @@ public class Board extends GridPane implements Serializable {
 
     /**
      * Ask Rule can I move to this square.
-     * If yes, tell Rule to take care of potential special movement (En Passant).
-     * Then perform the movement and unselect all squares.
+     * If yes, unselect all squares and tell Rule to perform the movement
+     * (Rule takes care of special movement like En Passant).
+     * The computer opponent stops pondering first.
      * Finally tell Rule to do aftermath of the movement
      * @param selecting
      *                  player clicking square.
      */
     private void move(Square selecting) {
-        if (Rule.isEnable(selecting)) {
-            Rule.enPassant(selectedSquare, selecting);
+        if (rule.isEnable(selecting)) {
+            rule.stopPondering();
             deHightLightALl();
-            selectedSquare.setChess(null);            
-            selecting.setChess(selectedChess);
+            rule.move(selectedSquare, selecting);
             selectedChess = null;
-            Rule.afterMove(selecting);
+            rule.afterMove(selecting);
         }
     }
 
@@ -192,45 +251,28 @@ public class Board extends GridPane implements Serializable {
     }
 
     /**
-     * Save board states when saving.
+     * Return the rule for this Board.
+     * @return rule of the game on this board
+     */
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Return the vsComputer for this Board.
+     * @return whether the red team is played by the computer
      */
-    public void save() {
-        isRedTurn = Rule.isRedTurn();
-        redCastling = Rule.isRedCastling();
-        blueCastling = Rule.isBlueCastling();
+    public boolean isVsComputer() {
+        return vsComputer;
     }
 
     /**
      * Set up chess pieces on the board.(Can be used for testing)
      */
     private void setBoard() {
-        /* normal board setting*/
-         
-        squares[0][0].setChess(new Rook(true));
-        squares[1][0].setChess(new Knight(true));
-        squares[2][0].setChess(new Bishop(true));
-        squares[3][0].setChess(new King(true));
-        squares[4][0].setChess(new Queen(true));
-        squares[5][0].setChess(new Bishop(true));
-        squares[6][0].setChess(new Knight(true));
-        squares[7][0].setChess(new Rook(true));
-        
-        for(int i = 0; i < 8; i++) {
-            squares[i][1].setChess(new Pawn(true));
-        }
-        
-        squares[0][7].setChess(new Rook(false));
-        squares[1][7].setChess(new Knight(false));
-        squares[2][7].setChess(new Bishop(false));
-        squares[3][7].setChess(new Queen(false));
-        squares[4][7].setChess(new King(false));
-        squares[5][7].setChess(new Bishop(false));
-        squares[6][7].setChess(new Knight(false));
-        squares[7][7].setChess(new Rook(false));
+        /* normal board setting, rendered from the headless starting position*/
         
-        for(int i = 0; i < 8; i++) {
-            squares[i][6].setChess(new Pawn(false));
-        }
+        render(Position.start());
         
         
         /* checkmate test case.
@@ -270,6 +312,18 @@ public class Board extends GridPane implements Serializable {
         squares[4][6].setChess(new Pawn(false));
         */
         
+        rule = new Rule(squares, false);
+    }
+    
+    /**
+     * Puts the chess pieces of a headless position on the board.
+     * @param position
+     *              the position to show.
+     */
+    private void render(Position position) {
+        for(int i = 0; i < squares.length; i++)
+            for(int j = 0; j < squares[i].length; j++)
+                squares[i][j].setChess(Chess.create(position.pieceAt(Position.square(i, j))));
     }
 
 }
@@ -122,4 +122,36 @@ abstract class Chess implements Serializable {
         this.step = step;
     }
 
+    /**
+     * Return the type of this Chess in Position.
+     * @return piece type
+     */
+    public abstract int getType();
+
+    /**
+     * Creates the chess piece for a Position piece code.
+     * @param piece
+     *              piece code in Position.
+     * @return new chess piece, or null if piece is Position.EMPTY.
+     */
+    public static Chess create(int piece) {
+        boolean isRed = Position.color(piece) == Position.RED;
+        switch (piece == Position.EMPTY ? Position.EMPTY : Position.type(piece)) {
+            case Position.PAWN:
+                return new Pawn(isRed);
+            case Position.KNIGHT:
+                return new Knight(isRed);
+            case Position.BISHOP:
+                return new Bishop(isRed);
+            case Position.ROOK:
+                return new Rook(isRed);
+            case Position.QUEEN:
+                return new Queen(isRed);
+            case Position.KING:
+                return new King(isRed);
+            default:
+                return null;
+        }
+    }
+
 }
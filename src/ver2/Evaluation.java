@@ -0,0 +1,274 @@
+package ver2;
+
+/**
+ *
+ * Evaluation.class
+ *
+ * Static evaluation of a Position for the computer opponent, in
+ * centipawns (one pawn is worth about 100).
+ *
+ * Every piece is worth its material value plus a piece-square bonus
+ * for the square it stands on, with one set of values for the
+ * middlegame and one for the endgame. The score is blended between
+ * the two by the game phase, worked out from the pieces left on the
+ * board: 24 with all minor and major pieces, 0 with none.
+ *
+ * Position adds and takes away these values in put() and remove(),
+ * so its totals are always up to date and evaluating a leaf is O(1).
+ *
+ * The static exchange evaluation (SEE) of a capture plays out every
+ * capture on its square, least valuable attacker first, to tell
+ * winning captures from losing ones without searching them.
+ *
+ * Tables are written from blue team's view, row 0 first, the way
+ * Position.toString() prints the board; red team's are mirrored.
+ */
+public class Evaluation {
+
+    /**
+     * Value of each piece type, indexed by Position type.
+     */
+    public static final int[] VALUE = {100, 320, 330, 500, 900, 0};
+
+    /**
+     * Game phase of all pieces on the starting board.
+     */
+    public static final int MAX_PHASE = 24;
+
+    /**
+     * Middlegame and endgame material value of each piece type.
+     */
+    private static final int[] MIDDLEGAME_VALUE = {82, 337, 365, 477, 1025, 0};
+    private static final int[] ENDGAME_VALUE = {94, 281, 297, 512, 936, 0};
+
+    /**
+     * Game phase each piece type counts for.
+     */
+    private static final int[] PHASE = {0, 1, 1, 2, 4, 0};
+
+    /**
+     * Piece-square bonuses of blue pieces, row 0 first.
+     */
+    private static final int[] PAWN_MIDDLEGAME = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+             50,  50,  50,  50,  50,  50,  50,  50,
+             10,  10,  20,  30,  30,  20,  10,  10,
+              5,   5,  10,  25,  25,  10,   5,   5,
+              0,   0,   0,  20,  20,   0,   0,   0,
+              5,  -5, -10,   0,   0, -10,  -5,   5,
+              5,  10,  10, -20, -20,  10,  10,   5,
+              0,   0,   0,   0,   0,   0,   0,   0
+    };
+    private static final int[] PAWN_ENDGAME = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+             80,  80,  80,  80,  80,  80,  80,  80,
+             50,  50,  50,  50,  50,  50,  50,  50,
+             30,  30,  30,  30,  30,  30,  30,  30,
+             15,  15,  15,  15,  15,  15,  15,  15,
+              5,   5,   5,   5,   5,   5,   5,   5,
+              0,   0,   0,   0,   0,   0,   0,   0,
+              0,   0,   0,   0,   0,   0,   0,   0
+    };
+    private static final int[] KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20,   0,   0,   0,   0, -20, -40,
+            -30,   0,  10,  15,  15,  10,   0, -30,
+            -30,   5,  15,  20,  20,  15,   5, -30,
+            -30,   0,  15,  20,  20,  15,   0, -30,
+            -30,   5,  10,  15,  15,  10,   5, -30,
+            -40, -20,   0,   5,   5,   0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50
+    };
+    private static final int[] BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,  10,  10,   5,   0, -10,
+            -10,   5,   5,  10,  10,   5,   5, -10,
+            -10,   0,  10,  10,  10,  10,   0, -10,
+            -10,  10,  10,  10,  10,  10,  10, -10,
+            -10,   5,   0,   0,   0,   0,   5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20
+    };
+    private static final int[] ROOK_TABLE = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+              5,  10,  10,  10,  10,  10,  10,   5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+              0,   0,   0,   5,   5,   0,   0,   0
+    };
+    private static final int[] QUEEN_TABLE = {
+            -20, -10, -10,  -5,  -5, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,   5,   5,   5,   0, -10,
+             -5,   0,   5,   5,   5,   5,   0,  -5,
+              0,   0,   5,   5,   5,   5,   0,  -5,
+            -10,   5,   5,   5,   5,   5,   0, -10,
+            -10,   0,   5,   0,   0,   0,   0, -10,
+            -20, -10, -10,  -5,  -5, -10, -10, -20
+    };
+    private static final int[] KING_MIDDLEGAME = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+             20,  20,   0,   0,   0,   0,  20,  20,
+             20,  30,  10,   0,   0,  10,  30,  20
+    };
+    private static final int[] KING_ENDGAME = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10,   0,   0, -10, -20, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -30,   0,   0,   0,   0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50
+    };
+
+    /**
+     * Middlegame and endgame score of each piece code on each square,
+     * material included, positive for blue and negative for red.
+     */
+    private static final int[][] MIDDLEGAME = new int[12][64];
+    private static final int[][] ENDGAME = new int[12][64];
+
+    static {
+        int[][] middlegame = {PAWN_MIDDLEGAME, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_MIDDLEGAME};
+        int[][] endgame = {PAWN_ENDGAME, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_ENDGAME};
+        for (int type = Position.PAWN; type <= Position.KING; type++)
+            for (int square = 0; square < 64; square++) {
+                int blue = Position.piece(Position.BLUE, type);
+                int red = Position.piece(Position.RED, type);
+                MIDDLEGAME[blue][square] = MIDDLEGAME_VALUE[type] + middlegame[type][square];
+                ENDGAME[blue][square] = ENDGAME_VALUE[type] + endgame[type][square];
+                MIDDLEGAME[red][square] = -MIDDLEGAME_VALUE[type] - middlegame[type][square ^ 56];
+                ENDGAME[red][square] = -ENDGAME_VALUE[type] - endgame[type][square ^ 56];
+            }
+    }
+
+    /**
+     * Evaluates a position from the view of the team to move,
+     * from the totals Position keeps up to date.
+     * @param position
+     *              the position to evaluate.
+     * @return score, positive when the team to move is better.
+     */
+    public static int evaluate(Position position) {
+        int phase = Math.min(position.getPhase(), MAX_PHASE);
+        int score = (position.getMiddlegame() * phase + position.getEndgame() * (MAX_PHASE - phase)) / MAX_PHASE;
+        return position.getSide() == Position.BLUE ? score : -score;
+    }
+
+    /**
+     * Return the middlegame score of a piece on a square.
+     * @param piece
+     *              piece code.
+     * @param square
+     *              the square of the piece.
+     * @return score, positive for blue and negative for red.
+     */
+    public static int middlegame(int piece, int square) {
+        return MIDDLEGAME[piece][square];
+    }
+
+    /**
+     * Return the endgame score of a piece on a square.
+     * @param piece
+     *              piece code.
+     * @param square
+     *              the square of the piece.
+     * @return score, positive for blue and negative for red.
+     */
+    public static int endgame(int piece, int square) {
+        return ENDGAME[piece][square];
+    }
+
+    /**
+     * Return the game phase a piece counts for.
+     * @param piece
+     *              piece code.
+     * @return phase
+     */
+    public static int phase(int piece) {
+        return PHASE[Position.type(piece)];
+    }
+
+    /**
+     * Checks whether a move wins at least a given amount of material by
+     * static exchange: both teams keep capturing on its target square
+     * with their least valuable attacker, and may stop whenever going
+     * on would lose material. Attackers uncovered behind a capturing
+     * piece join in, since attackers are found again each time through
+     * the shrinking occupancy.
+     * @param position
+     *              the position the move is made in.
+     * @param move
+     *              packed move.
+     * @param threshold
+     *              material the move must win, in VALUE centipawns.
+     * @return whether the exchange wins at least threshold.
+     */
+    public static boolean see(Position position, int move, int threshold) {
+        if (Move.flag(move) != Move.NORMAL || Move.promotion(move) != 0)
+            return threshold <= 0;
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int victim = position.pieceAt(to);
+        int swap = (victim == Position.EMPTY ? 0 : VALUE[Position.type(victim)]) - threshold;
+        if (swap < 0)
+            return false;
+        swap = VALUE[Position.type(position.pieceAt(from))] - swap;
+        if (swap <= 0)
+            return true;
+        long occupied = position.occupied() ^ 1L << from ^ 1L << to;
+        int color = Position.color(position.pieceAt(from));
+        int result = 1;
+        while (true) {
+            color ^= 1;
+            long attackers = position.attackersTo(to, occupied) & occupied;
+            long own = attackers & position.pieces(color);
+            if (own == 0)
+                break;
+            result ^= 1;
+            int type = Position.PAWN;
+            while ((own & position.pieces(color, type)) == 0)
+                type++;
+            if (type == Position.KING)
+                return (attackers & position.pieces(color ^ 1)) != 0 ? result == 0 : result == 1;
+            swap = VALUE[type] - swap;
+            if (swap < result)
+                break;
+            occupied ^= Long.lowestOneBit(own & position.pieces(color, type));
+        }
+        return result == 1;
+    }
+
+    /**
+     * Evaluates a position from scratch, scanning every piece; Perft's
+     * check compares it with the totals Position keeps up to date.
+     * @param position
+     *              the position to evaluate.
+     * @return score, positive when the team to move is better.
+     */
+    public static int compute(Position position) {
+        int middlegame = 0;
+        int endgame = 0;
+        int phase = 0;
+        for (long pieces = position.occupied(); pieces != 0; pieces &= pieces - 1) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            int piece = position.pieceAt(square);
+            middlegame += middlegame(piece, square);
+            endgame += endgame(piece, square);
+            phase += phase(piece);
+        }
+        phase = Math.min(phase, MAX_PHASE);
+        int score = (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+        return position.getSide() == Position.BLUE ? score : -score;
+    }
+
+}
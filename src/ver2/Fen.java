@@ -0,0 +1,256 @@
+package ver2;
+
+/**
+ *
+ * Fen.class
+ *
+ * Reads and writes positions in Forsyth-Edwards Notation (FEN), the
+ * standard one-line position text, e.g. the standard chess starting
+ * position (STANDARD):
+ * rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1
+ * Board starts from its own layout (START), with red team's king and
+ * queen swapped.
+ *
+ * Ranks are listed from rank 8 (row 0, red team's side) to rank 1
+ * (row 7), files a to h are columns 0 to 7, and white stands for blue
+ * team. Castling rights K and Q are blue team's with the rook on file
+ * h and a, k and q red team's.
+ *
+ * The parser walks the characters of any CharSequence (a String, a
+ * CharBuffer over a read buffer, a StringBuilder...) once, without
+ * regular expressions, splitting or substrings, and can set up a
+ * Position that is reused for every line, so parsing allocates nothing.
+ */
+public class Fen {
+
+    /**
+     * FEN of the starting position used by Board.
+     */
+    public static final String START = "rnbkqbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    /**
+     * FEN of the standard chess starting position, which PGN assumes for
+     * games without a FEN tag.
+     */
+    public static final String STANDARD = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    /**
+     * FEN letter of each piece code.
+     */
+    private static final String PIECES = "PNBRQKpnbrqk";
+
+    /**
+     * FEN letter of each castling right, lowest bit first.
+     */
+    private static final String CASTLING = "KQkq";
+
+    /**
+     * Parses a FEN into a new position.
+     * @param fen
+     *              FEN text.
+     * @return the position.
+     * @throws IllegalArgumentException
+     *              if the text is not a valid FEN.
+     */
+    public static Position parse(CharSequence fen) {
+        Position position = new Position();
+        parse(fen, 0, fen.length(), position);
+        return position;
+    }
+
+    /**
+     * Parses a FEN into an existing position, which is cleared first.
+     * The halfmove clock and fullmove number may be left out.
+     * @param fen
+     *              text holding the FEN.
+     * @param start
+     *              index of the first character of the FEN.
+     * @param end
+     *              index after the last character of the FEN.
+     * @param position
+     *              the position to set up.
+     * @throws IllegalArgumentException
+     *              if the text is not a valid FEN.
+     */
+    public static void parse(CharSequence fen, int start, int end, Position position) {
+        position.clear();
+        int i = skipSpaces(fen, start, end);
+        int row = 0;
+        int col = 0;
+        for (; i < end && fen.charAt(i) != ' '; i++) {
+            char c = fen.charAt(i);
+            if (c == '/') {
+                if (col != 8 || ++row > 7)
+                    throw invalid(fen, start, end);
+                col = 0;
+            } else if (c >= '1' && c <= '8') {
+                col += c - '0';
+            } else {
+                int piece = PIECES.indexOf(c);
+                if (piece < 0 || col > 7)
+                    throw invalid(fen, start, end);
+                position.put(piece, Position.square(col++, row));
+            }
+            if (col > 8)
+                throw invalid(fen, start, end);
+        }
+        if (row != 7 || col != 8 || Long.bitCount(position.pieces(Position.BLUE, Position.KING)) != 1
+                || Long.bitCount(position.pieces(Position.RED, Position.KING)) != 1)
+            throw invalid(fen, start, end);
+
+        i = skipSpaces(fen, i, end);
+        if (i == end || fen.charAt(i) != 'w' && fen.charAt(i) != 'b')
+            throw invalid(fen, start, end);
+        position.setSide(fen.charAt(i++) == 'w' ? Position.BLUE : Position.RED);
+
+        i = skipSpaces(fen, i, end);
+        int castling = 0;
+        if (i < end && fen.charAt(i) == '-')
+            i++;
+        else
+            for (; i < end && fen.charAt(i) != ' '; i++) {
+                int right = CASTLING.indexOf(fen.charAt(i));
+                if (right < 0)
+                    throw invalid(fen, start, end);
+                castling |= 1 << right;
+            }
+        position.setCastling(castling & castlingAllowed(position));
+
+        i = skipSpaces(fen, i, end);
+        if (i < end && fen.charAt(i) == '-')
+            i++;
+        else {
+            if (i + 1 >= end || fen.charAt(i) < 'a' || fen.charAt(i) > 'h'
+                    || fen.charAt(i + 1) < '1' || fen.charAt(i + 1) > '8')
+                throw invalid(fen, start, end);
+            position.setEnPassant(Position.square(fen.charAt(i) - 'a', '8' - fen.charAt(i + 1)));
+            i += 2;
+        }
+
+        i = skipSpaces(fen, i, end);
+        if (i < end) {
+            int halfmoveClock = 0;
+            for (; i < end && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; i++)
+                halfmoveClock = halfmoveClock * 10 + fen.charAt(i) - '0';
+            position.setHalfmoveClock(halfmoveClock);
+            i = skipSpaces(fen, i, end);
+            int fullmoveNumber = 0;
+            for (; i < end && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; i++)
+                fullmoveNumber = fullmoveNumber * 10 + fen.charAt(i) - '0';
+            position.setFullmoveNumber(Math.max(1, fullmoveNumber));
+            if (skipSpaces(fen, i, end) != end)
+                throw invalid(fen, start, end);
+        }
+        if (position.isChecked(position.getSide() ^ 1))
+            throw invalid(fen, start, end);
+    }
+
+    /**
+     * Gets the castling rights whose king and rook still stand on their
+     * starting squares: the rook in its corner and the king on the same
+     * back row, on file d or e (Board's layout puts red team's king on
+     * d8). Rights a FEN gives beyond these are dropped.
+     * @param position
+     *              the position with its pieces set up.
+     * @return mask of castling rights
+     */
+    private static int castlingAllowed(Position position) {
+        int allowed = 0;
+        for (int color = Position.BLUE; color <= Position.RED; color++) {
+            int row = color == Position.BLUE ? 7 : 0;
+            int king = position.king(color);
+            if (Position.row(king) != row || Position.col(king) != 3 && Position.col(king) != 4)
+                continue;
+            for (int col = 0; col < 8; col += 7) {
+                int rook = Position.square(col, row);
+                if (position.pieceAt(rook) == Position.piece(color, Position.ROOK))
+                    allowed |= Position.castlingRight(color, rook);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Writes the FEN of a position.
+     * @param position
+     *              the position to write.
+     * @return FEN text.
+     */
+    public static String write(Position position) {
+        return write(position, new StringBuilder(90)).toString();
+    }
+
+    /**
+     * Appends the FEN of a position to a StringBuilder.
+     * @param position
+     *              the position to write.
+     * @param fen
+     *              the StringBuilder to append to.
+     * @return the same StringBuilder.
+     */
+    public static StringBuilder write(Position position, StringBuilder fen) {
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int piece = position.pieceAt(Position.square(col, row));
+                if (piece == Position.EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0)
+                    fen.append((char) ('0' + empty));
+                empty = 0;
+                fen.append(PIECES.charAt(piece));
+            }
+            if (empty > 0)
+                fen.append((char) ('0' + empty));
+            if (row < 7)
+                fen.append('/');
+        }
+        fen.append(position.getSide() == Position.BLUE ? " w " : " b ");
+        if (position.getCastling() == 0)
+            fen.append('-');
+        for (int right = 0; right < CASTLING.length(); right++)
+            if ((position.getCastling() & 1 << right) != 0)
+                fen.append(CASTLING.charAt(right));
+        int enPassant = position.getEnPassant();
+        if (enPassant == Position.EMPTY)
+            fen.append(" -");
+        else
+            fen.append(' ').append((char) ('a' + Position.col(enPassant)))
+                    .append((char) ('8' - Position.row(enPassant)));
+        return fen.append(' ').append(position.getHalfmoveClock())
+                .append(' ').append(position.getFullmoveNumber());
+    }
+
+    /**
+     * Skips the spaces of a FEN.
+     * @param fen
+     *              text holding the FEN.
+     * @param i
+     *              index to start at.
+     * @param end
+     *              index after the last character of the FEN.
+     * @return index of the next character that is not a space, or end.
+     */
+    private static int skipSpaces(CharSequence fen, int i, int end) {
+        while (i < end && fen.charAt(i) == ' ')
+            i++;
+        return i;
+    }
+
+    /**
+     * Creates the exception thrown for an invalid FEN.
+     * @param fen
+     *              text holding the FEN.
+     * @param start
+     *              index of the first character of the FEN.
+     * @param end
+     *              index after the last character of the FEN.
+     * @return the exception to throw.
+     */
+    private static IllegalArgumentException invalid(CharSequence fen, int start, int end) {
+        return new IllegalArgumentException("Invalid FEN: " + fen.subSequence(start, end));
+    }
+
+}
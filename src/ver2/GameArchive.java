@@ -0,0 +1,472 @@
+package ver2;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * GameArchive.class
+ *
+ * Archive of games on disk, written by GameArchiveWriter, that finds
+ * the games that reached a position without loading them. A directory
+ * holds two files (big-endian):
+ *
+ * games.dat, the games one after another:
+ * - int   magic number "CHSA", int version, long number of games
+ * - per game: byte result, byte start (STANDARD_START, BOARD_START, or
+ *   FEN_START followed by a byte length and the FEN in ASCII), short
+ *   move count, then each move as a short encoded as in GameFile
+ *
+ * index.dat, every position of every game:
+ * - int   magic number "CHSA", int version, long unused
+ * - per position 16 bytes: long Zobrist key, then a long of the offset
+ *   of the game in games.dat (46 bits), its result (2 bits) and the
+ *   move played next, encoded as in GameFile, or NO_MOVE at the end of
+ *   the game (16 bits); sorted by key (unsigned, as in OpeningBook),
+ *   then by game
+ *
+ * Both files are memory mapped read only, in segments of 1 GB so they
+ * can grow past what one mapping holds. A query is a binary search of
+ * the index, then a scan of the entries of the key, which lie next to
+ * each other: games() and statistics() read nothing else, so a query
+ * costs the binary search plus 16 bytes per time the position was
+ * reached, and nothing of the archive is kept on the heap. Only
+ * getStart() and getMoves() read games.dat.
+ *
+ * Archives are opened once per directory and shared, like opening books.
+ *
+ * Usage: java ver2.GameArchive directory [FEN]
+ */
+public class GameArchive {
+
+    /**
+     * Magic number at the start of both files.
+     */
+    static final int MAGIC = 0x43485341;
+
+    /**
+     * Version of the layout written.
+     */
+    static final int VERSION = 3;
+
+    /**
+     * Bytes of the header of both files.
+     */
+    static final int HEADER_BYTES = 16;
+
+    /**
+     * Name of the games file.
+     */
+    static final String GAMES_FILE = "games.dat";
+
+    /**
+     * Name of the index file.
+     */
+    static final String INDEX_FILE = "index.dat";
+
+    /**
+     * Most moves kept of a game, as its move count is a short.
+     */
+    static final int MAX_MOVES = 0xFFFF;
+
+    /**
+     * Next move of an index entry at the end of its game; moves are
+     * encoded in 15 bits, so no move has this code.
+     */
+    static final int NO_MOVE = 0xFFFF;
+
+    /**
+     * Bits of an index entry's value below the game offset.
+     */
+    static final int GAME_SHIFT = 18;
+
+    /**
+     * Start of a game from the standard chess starting position.
+     */
+    static final int STANDARD_START = 0;
+
+    /**
+     * Start of a game from the starting position of Board.
+     */
+    static final int BOARD_START = 1;
+
+    /**
+     * Start of a game from a position written out as FEN.
+     */
+    static final int FEN_START = 2;
+
+    /**
+     * Result of a game not finished or not known.
+     */
+    public static final int UNKNOWN = 0;
+
+    /**
+     * Result of a game blue team won.
+     */
+    public static final int BLUE_WIN = 1;
+
+    /**
+     * Result of a game red team won.
+     */
+    public static final int RED_WIN = 2;
+
+    /**
+     * Result of a game drawn.
+     */
+    public static final int DRAW = 3;
+
+    /**
+     * Bytes of one index entry.
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    /**
+     * Bits of the offset within a segment; segments are 1 GB.
+     */
+    private static final int SEGMENT_BITS = 30;
+
+    /**
+     * Mask of the offset within a segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * Archives already opened, by directory.
+     */
+    private static final ConcurrentHashMap<Path, GameArchive> ARCHIVES = new ConcurrentHashMap<Path, GameArchive>();
+
+    /**
+     * Read only mapping of games.dat, by segment.
+     */
+    private final MappedByteBuffer[] games;
+
+    /**
+     * Read only mapping of index.dat, by segment.
+     */
+    private final MappedByteBuffer[] index;
+
+    /**
+     * Number of games in the archive.
+     */
+    private final long gameCount;
+
+    /**
+     * Number of entries in the index.
+     */
+    private final long size;
+
+    /**
+     * Constructs an object of type GameArchive.
+     * @param directory
+     *              directory of the archive to map.
+     * @throws IOException
+     *              if the files cannot be read or are not an archive.
+     */
+    private GameArchive(Path directory) throws IOException {
+        Path gamesFile = directory.resolve(GAMES_FILE);
+        Path indexFile = directory.resolve(INDEX_FILE);
+        games = map(gamesFile);
+        index = map(indexFile);
+        if (games[0].getInt(0) != MAGIC || games[0].getInt(4) != VERSION)
+            throw new IOException("Not a game archive: " + gamesFile);
+        if (index[0].getInt(0) != MAGIC || index[0].getInt(4) != VERSION
+                || (length(index) - HEADER_BYTES) % ENTRY_BYTES != 0)
+            throw new IOException("Not a game archive index: " + indexFile);
+        gameCount = games[0].getLong(8);
+        size = (length(index) - HEADER_BYTES) / ENTRY_BYTES;
+    }
+
+    /**
+     * Maps a file read only, one segment at a time.
+     * @param file
+     *              the file.
+     * @return mapping of each segment.
+     * @throws IOException
+     *              if the file cannot be read or is shorter than a header.
+     */
+    private static MappedByteBuffer[] map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES)
+                throw new IOException("Not a game archive: " + file);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_MASK + 1, length - start));
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Gets the length of a mapped file.
+     * @param segments
+     *              mapping of each segment.
+     * @return length in bytes
+     */
+    private static long length(MappedByteBuffer[] segments) {
+        return ((long) (segments.length - 1) << SEGMENT_BITS) + segments[segments.length - 1].capacity();
+    }
+
+    /**
+     * Opens an archive, or returns the archive already opened for it.
+     * @param directory
+     *              directory of the archive.
+     * @return the shared archive.
+     * @throws IOException
+     *              if the files cannot be read or are not an archive.
+     */
+    public static GameArchive open(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        GameArchive archive = ARCHIVES.get(key);
+        if (archive == null) {
+            archive = new GameArchive(key);
+            GameArchive opened = ARCHIVES.putIfAbsent(key, archive);
+            if (opened != null)
+                archive = opened;
+        }
+        return archive;
+    }
+
+    /**
+     * Prints how often the position was reached and the moves played from it.
+     * @param args
+     *              directory [FEN], the standard starting position by default.
+     * @throws IOException
+     *              if the archive cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        GameArchive archive = open(Paths.get(args[0]));
+        Position position = Fen.parse(args.length > 1 ? args[1] : Fen.STANDARD);
+        long start = System.nanoTime();
+        long[] found = archive.games(position, Integer.MAX_VALUE);
+        List<MoveStatistics> moves = archive.statistics(position);
+        long time = (System.nanoTime() - start) / 1000;
+        System.out.println(found.length + " of " + archive.getGames() + " games reached the position ("
+                + time + " us)");
+        for (MoveStatistics move : moves)
+            System.out.println(move);
+    }
+
+    /**
+     * Gets the result of a game from its PGN result.
+     * @param pgn
+     *              1-0, 0-1, 1/2-1/2 or *.
+     * @return one of the results
+     */
+    public static int result(String pgn) {
+        if (pgn.equals("1-0"))
+            return BLUE_WIN;
+        if (pgn.equals("0-1"))
+            return RED_WIN;
+        if (pgn.equals("1/2-1/2"))
+            return DRAW;
+        return UNKNOWN;
+    }
+
+    /**
+     * Finds the games that reached a position.
+     * @param position
+     *              the position to look up.
+     * @param limit
+     *              most games returned.
+     * @return offsets of the games in the archive, in the order they were written.
+     */
+    public long[] games(Position position, int limit) {
+        long key = position.getKey();
+        long[] found = new long[16];
+        int count = 0;
+        for (long i = find(key); i < size && key(i) == key && count < limit; i++) {
+            long game = value(i) >>> GAME_SHIFT;
+            if (count > 0 && found[count - 1] == game)
+                continue;
+            if (count == found.length)
+                found = Arrays.copyOf(found, count * 2);
+            found[count++] = game;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Counts the moves played from a position and how their games ended.
+     * A game that reached the position more than once counts each time.
+     * Only the index entries of the position are read.
+     * @param position
+     *              the position to look up.
+     * @return statistics of each move, the most played first.
+     */
+    public List<MoveStatistics> statistics(Position position) {
+        long key = position.getKey();
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        MoveStatistics[] byCode = new MoveStatistics[1 << 15];
+        List<MoveStatistics> moves = new ArrayList<MoveStatistics>();
+        for (long i = find(key); i < size && key(i) == key; i++) {
+            long value = value(i);
+            int encoded = (int) (value & 0xFFFF);
+            if (encoded == NO_MOVE)
+                continue;
+            if (byCode[encoded] == null) {
+                int move = GameFile.decode(position, encoded, legal);
+                if (move == Move.NONE)
+                    continue;
+                byCode[encoded] = new MoveStatistics(move);
+                moves.add(byCode[encoded]);
+            }
+            byCode[encoded].add((int) (value >>> 16) & 3);
+        }
+        Collections.sort(moves, new Comparator<MoveStatistics>() {
+            @Override
+            public int compare(MoveStatistics a, MoveStatistics b) {
+                return Long.compare(b.getGames(), a.getGames());
+            }
+        });
+        return moves;
+    }
+
+    /**
+     * Gets the position a game starts from.
+     * @param game
+     *              offset of the game, from games().
+     * @return a new position.
+     */
+    public Position getStart(long game) {
+        int start = getByte(game + 1);
+        if (start == STANDARD_START)
+            return Fen.parse(Fen.STANDARD);
+        if (start == BOARD_START)
+            return Position.start();
+        StringBuilder fen = new StringBuilder();
+        for (int i = 0, length = getByte(game + 2); i < length; i++)
+            fen.append((char) getByte(game + 3 + i));
+        return Fen.parse(fen);
+    }
+
+    /**
+     * Gets the moves of a game.
+     * @param game
+     *              offset of the game, from games().
+     * @return packed moves, from the position getStart() returns.
+     */
+    public int[] getMoves(long game) {
+        Position position = getStart(game);
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        long count = countOffset(game);
+        int[] moves = new int[getShort(count)];
+        for (int ply = 0; ply < moves.length; ply++) {
+            moves[ply] = GameFile.decode(position, getShort(count + 2 + 2L * ply), legal);
+            position.makeMove(moves[ply]);
+        }
+        return moves;
+    }
+
+    /**
+     * Gets the result of a game.
+     * @param game
+     *              offset of the game, from games().
+     * @return one of the results
+     */
+    public int getResult(long game) {
+        return getByte(game);
+    }
+
+    /**
+     * Gets the number of moves of a game.
+     * @param game
+     *              offset of the game, from games().
+     * @return number of moves
+     */
+    public int getMoveCount(long game) {
+        return getShort(countOffset(game));
+    }
+
+    /**
+     * Finds the move count of a game, after its start.
+     * @param game
+     *              offset of the game, from games().
+     * @return offset of the move count, followed by the moves
+     */
+    private long countOffset(long game) {
+        return getByte(game + 1) == FEN_START ? game + 3 + getByte(game + 2) : game + 2;
+    }
+
+    /**
+     * Return the games for this GameArchive.
+     * @return number of games in the archive
+     */
+    public long getGames() {
+        return gameCount;
+    }
+
+    /**
+     * Finds the first index entry of a key by binary search.
+     * @param key
+     *              Zobrist key to find.
+     * @return index of the first entry not below the key.
+     */
+    private long find(long key) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(key(middle), key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Return the key of an index entry.
+     * @param i
+     *              index of the entry.
+     * @return Zobrist key
+     */
+    private long key(long i) {
+        long offset = HEADER_BYTES + i * ENTRY_BYTES;
+        return index[(int) (offset >>> SEGMENT_BITS)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Return the game, result and next move of an index entry.
+     * @param i
+     *              index of the entry.
+     * @return offset of the game shifted left GAME_SHIFT bits, or'd with
+     *         the result shifted left 16 bits and the next move's code
+     */
+    private long value(long i) {
+        long offset = HEADER_BYTES + i * ENTRY_BYTES + 8;
+        return index[(int) (offset >>> SEGMENT_BITS)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Reads a byte of games.dat.
+     * @param offset
+     *              offset of the byte.
+     * @return the byte, unsigned
+     */
+    private int getByte(long offset) {
+        return games[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK)) & 0xFF;
+    }
+
+    /**
+     * Reads a short of games.dat, which may lie across two segments.
+     * @param offset
+     *              offset of the short.
+     * @return the short, unsigned
+     */
+    private int getShort(long offset) {
+        return getByte(offset) << 8 | getByte(offset + 1);
+    }
+
+}
@@ -0,0 +1,398 @@
+package ver2;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * GameArchiveWriter.class
+ *
+ * Builds a GameArchive. Games are appended to the games file as they
+ * come; every position they reach is an index entry, sorted in memory
+ * a few million at a time and written to a run file. Closing the
+ * writer merges the runs into the index, so any number of games is
+ * archived in bounded memory.
+ *
+ * Games may start from any position: the standard chess starting
+ * position and that of Board take one byte, others are kept as FEN.
+ *
+ * Usage: java ver2.GameArchiveWriter directory file.pgn...
+ */
+public class GameArchiveWriter implements Closeable {
+
+    /**
+     * Index entries sorted in memory at a time (64 MB).
+     */
+    private static final int RUN_ENTRIES = 1 << 22;
+
+    /**
+     * Bytes written or read through each buffer at a time.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Key of the standard chess starting position.
+     */
+    private static final long STANDARD_KEY = Fen.parse(Fen.STANDARD).getKey();
+
+    /**
+     * Key of the starting position of Board.
+     */
+    private static final long BOARD_KEY = Position.start().getKey();
+
+    /**
+     * Directory of the archive.
+     */
+    private final Path directory;
+
+    /**
+     * The games file.
+     */
+    private final FileChannel games;
+
+    /**
+     * Bytes waiting to be written to the games file.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Offset in the games file the next game is written at.
+     */
+    private long offset;
+
+    /**
+     * Position key of each index entry not written to a run yet.
+     */
+    private final long[] keys = new long[RUN_ENTRIES];
+
+    /**
+     * Game, result and next move of each index entry not written to a run yet.
+     */
+    private final long[] values = new long[RUN_ENTRIES];
+
+    /**
+     * Number of index entries not written to a run yet.
+     */
+    private int entries;
+
+    /**
+     * Run files written so far.
+     */
+    private final List<Path> runs = new ArrayList<Path>();
+
+    /**
+     * Number of games written.
+     */
+    private long count;
+
+    /**
+     * Moves of the game being archived.
+     */
+    private int[] moves = new int[256];
+
+    /**
+     * Constructs an object of type GameArchiveWriter, replacing any
+     * archive in the directory.
+     * @param directory
+     *              directory of the archive, created if it does not exist.
+     * @throws IOException
+     *              if the games file cannot be written.
+     */
+    public GameArchiveWriter(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        games = FileChannel.open(directory.resolve(GameArchive.GAMES_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(GameArchive.MAGIC).putInt(GameArchive.VERSION).putLong(0);
+        offset = GameArchive.HEADER_BYTES;
+    }
+
+    /**
+     * Archives the games of PGN files. A game with a move that is not
+     * legal keeps the moves before it.
+     * @param args
+     *              directory file.pgn...
+     * @throws IOException
+     *              if a file cannot be read or the archive cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        long start = System.currentTimeMillis();
+        try (GameArchiveWriter writer = new GameArchiveWriter(Paths.get(args[0]))) {
+            for (int i = 1; i < args.length; i++)
+                try (PgnReader reader = new PgnReader(FileChannel.open(Paths.get(args[i])))) {
+                    while (reader.next())
+                        writer.add(reader.getPosition(), GameArchive.result(reader.getResult()));
+                }
+            System.out.println(writer.count + " games archived in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Archives a game, up to its first MAX_MOVES moves.
+     * @param game
+     *              position at the end of the game, with its moves made on it.
+     * @param result
+     *              result of the game, one of the GameArchive results.
+     * @throws IOException
+     *              if the archive cannot be written.
+     */
+    public void add(Position game, int result) throws IOException {
+        Position position = new Position(game);
+        if (moves.length < position.getPly())
+            moves = Arrays.copyOf(moves, position.getPly());
+        for (int i = position.getPly() - 1; i >= 0; i--) {
+            moves[i] = position.getLastMove();
+            position.unmakeMove();
+        }
+        int moveCount = Math.min(game.getPly(), GameArchive.MAX_MOVES);
+        long start = offset;
+        put((byte) result);
+        if (position.getKey() == STANDARD_KEY)
+            put((byte) GameArchive.STANDARD_START);
+        else if (position.getKey() == BOARD_KEY)
+            put((byte) GameArchive.BOARD_START);
+        else {
+            String fen = Fen.write(position);
+            put((byte) GameArchive.FEN_START);
+            put((byte) fen.length());
+            for (int i = 0; i < fen.length(); i++)
+                put((byte) fen.charAt(i));
+        }
+        put((byte) (moveCount >>> 8));
+        put((byte) moveCount);
+        for (int ply = 0; ; ply++) {
+            int encoded = ply == moveCount ? GameArchive.NO_MOVE : GameFile.encode(moves[ply]);
+            index(position.getKey(), start << GameArchive.GAME_SHIFT | (long) result << 16 | encoded);
+            if (ply == moveCount)
+                break;
+            put((byte) (encoded >>> 8));
+            put((byte) encoded);
+            position.makeMove(moves[ply]);
+        }
+        count++;
+    }
+
+    /**
+     * Puts a byte into the games file.
+     * @param value
+     *              the byte.
+     * @throws IOException
+     *              if the games file cannot be written.
+     */
+    private void put(byte value) throws IOException {
+        if (!buffer.hasRemaining())
+            flush();
+        buffer.put(value);
+        offset++;
+    }
+
+    /**
+     * Writes the buffered bytes to the games file.
+     * @throws IOException
+     *              if the games file cannot be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            games.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Adds an index entry, writing a run once the entries fill up.
+     * @param key
+     *              Zobrist key of the position.
+     * @param value
+     *              game, result and next move, as GameArchive reads them.
+     * @throws IOException
+     *              if the run cannot be written.
+     */
+    private void index(long key, long value) throws IOException {
+        if (entries == RUN_ENTRIES)
+            writeRun();
+        keys[entries] = key;
+        values[entries++] = value;
+    }
+
+    /**
+     * Sorts the index entries in memory and writes them to a run file.
+     * @throws IOException
+     *              if the run cannot be written.
+     */
+    private void writeRun() throws IOException {
+        sort(0, entries - 1);
+        Path run = directory.resolve(GameArchive.INDEX_FILE + "." + runs.size());
+        runs.add(run);
+        try (FileChannel out = FileChannel.open(run, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 0; i < entries; i++) {
+                if (!bytes.hasRemaining())
+                    write(out, bytes);
+                bytes.putLong(keys[i]).putLong(values[i]);
+            }
+            write(out, bytes);
+        }
+        entries = 0;
+    }
+
+    /**
+     * Sorts index entries by key, unsigned as in OpeningBook, then by
+     * value (quicksort).
+     * @param low
+     *              index of the first entry to sort.
+     * @param high
+     *              index of the last entry to sort.
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            long pivotKey = keys[middle];
+            long pivotValue = values[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(i, pivotKey, pivotValue) < 0)
+                    i++;
+                while (compare(j, pivotKey, pivotValue) > 0)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++)
+            for (int j = i; j > low && compare(j - 1, keys[j], values[j]) > 0; j--)
+                swap(j, j - 1);
+    }
+
+    /**
+     * Compares an index entry with a key and value.
+     * @param i
+     *              index of the entry.
+     * @param key
+     *              key to compare with.
+     * @param value
+     *              value to compare with.
+     * @return negative, zero or positive as the entry is below, equal or above.
+     */
+    private int compare(int i, long key, long value) {
+        int order = Long.compareUnsigned(keys[i], key);
+        return order != 0 ? order : Long.compare(values[i], value);
+    }
+
+    /**
+     * Swaps two index entries.
+     * @param i
+     *              index of one entry.
+     * @param j
+     *              index of the other entry.
+     */
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Writes the games file, then merges the runs into the index and
+     * deletes them.
+     * @throws IOException
+     *              if the archive cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putLong(count).flip();
+        games.write(header, 8);
+        games.close();
+        if (entries > 0 || runs.isEmpty())
+            writeRun();
+        int k = runs.size();
+        FileChannel[] in = new FileChannel[k];
+        ByteBuffer[] heads = new ByteBuffer[k];
+        try (FileChannel out = FileChannel.open(directory.resolve(GameArchive.INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            bytes.putInt(GameArchive.MAGIC).putInt(GameArchive.VERSION).putLong(0);
+            for (int i = 0; i < k; i++) {
+                in[i] = FileChannel.open(runs.get(i), StandardOpenOption.READ);
+                heads[i] = ByteBuffer.allocate(BUFFER_SIZE);
+                heads[i].flip();
+                fill(in[i], heads[i]);
+            }
+            while (true) {
+                int best = -1;
+                for (int i = 0; i < k; i++)
+                    if (heads[i].hasRemaining() && (best < 0 || Long.compareUnsigned(heads[i].getLong(heads[i].position()),
+                            heads[best].getLong(heads[best].position())) < 0))
+                        best = i;
+                if (best < 0)
+                    break;
+                if (!bytes.hasRemaining())
+                    write(out, bytes);
+                bytes.putLong(heads[best].getLong()).putLong(heads[best].getLong());
+                if (!heads[best].hasRemaining())
+                    fill(in[best], heads[best]);
+            }
+            write(out, bytes);
+        } finally {
+            for (int i = 0; i < k; i++)
+                if (in[i] != null)
+                    in[i].close();
+            for (Path run : runs)
+                Files.deleteIfExists(run);
+        }
+    }
+
+    /**
+     * Refills the buffer of a run with its next entries.
+     * @param in
+     *              the run file.
+     * @param head
+     *              its buffer, empty.
+     * @throws IOException
+     *              if the run cannot be read.
+     */
+    private static void fill(FileChannel in, ByteBuffer head) throws IOException {
+        head.clear();
+        while (head.hasRemaining() && in.read(head) >= 0)
+            ;
+        head.flip();
+    }
+
+    /**
+     * Writes a full buffer and clears it.
+     * @param out
+     *              the file to write to.
+     * @param bytes
+     *              the buffer.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    private static void write(FileChannel out, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            out.write(bytes);
+        bytes.clear();
+    }
+
+}
@@ -0,0 +1,140 @@
+package ver2;
+import java.util.Arrays;
+
+/**
+ *
+ * GameContext.class
+ *
+ * State of one chess game: its position and everything worked out
+ * from it. Each game owns its own context, so any number of games can
+ * be played side by side in one program; nothing here is static and
+ * nothing here needs the game board to be shown.
+ *
+ * The legal moves of the position are cached together with a mask of
+ * the movable squares of every square, keyed by the position's key.
+ */
+public class GameContext {
+
+    /**
+     * Headless position of the game.
+     */
+    private Position position;
+
+    /**
+     * Cached legal moves of the position whose key is legalMoveKey.
+     */
+    private int[] legalMove;
+
+    /**
+     * Key of the position the cached legal moves belong to.
+     */
+    private long legalMoveKey;
+
+    /**
+     * Cached movable squares of each square, as masks of Position squares.
+     * (Castling moves are put on the square of the rook)
+     */
+    private final long[] legalTarget = new long[64];
+
+    /**
+     * Constructs an object of type GameContext.
+     * @param position
+     *              the game position, owned by this context from now on.
+     */
+    public GameContext(Position position) {
+        this.position = position;
+    }
+
+    /**
+     * Makes a movement on the game position.
+     * @param move
+     *              packed legal move to make.
+     */
+    public void makeMove(int move) {
+        position.makeMove(move);
+        invalidateLegalMove();
+    }
+
+    /**
+     * Takes back the last movement made on the game position.
+     */
+    public void unmakeMove() {
+        position.unmakeMove();
+        invalidateLegalMove();
+    }
+
+    /**
+     * Gets all legal moves of the team on this turn from MoveGenerator,
+     * which already takes checks, pins, En Passant and castling into account.
+     * @return packed legal moves.
+     */
+    public int[] getLegalMove() {
+        return Arrays.copyOf(cacheLegalMove(), legalMove.length);
+    }
+
+    /**
+     * Gets the squares the piece on a square may move to.
+     * @param from
+     *              Position square of the piece.
+     * @return mask of Position squares, castling on the rook's square.
+     */
+    public long getLegalTarget(int from) {
+        cacheLegalMove();
+        return legalTarget[from];
+    }
+
+    /**
+     * Checks whether the team on this turn is being checkmated.
+     * @return whether its king is checked and it has no legal move left.
+     */
+    public boolean isCheckmate() {
+        return position.checkers() != 0 && cacheLegalMove().length == 0;
+    }
+
+    /**
+     * Generates the legal moves of the position and the movable squares
+     * of every square, unless they are already cached for this position.
+     * Reselecting pieces in the same turn then only reads the cache.
+     * @return cached packed legal moves.
+     */
+    private int[] cacheLegalMove() {
+        if (legalMove != null && legalMoveKey == position.getKey())
+            return legalMove;
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        Arrays.fill(legalTarget, 0);
+        for (int i = 0; i < count; i++) {
+            int from = Move.from(moves[i]);
+            int to = Move.flag(moves[i]) == Move.CASTLING
+                    ? Position.castlingRook(from, Move.to(moves[i])) : Move.to(moves[i]);
+            legalTarget[from] |= 1L << to;
+        }
+        legalMove = Arrays.copyOf(moves, count);
+        legalMoveKey = position.getKey();
+        return legalMove;
+    }
+
+    /**
+     * Drops the cached legal moves, after the position has changed.
+     */
+    public void invalidateLegalMove() {
+        legalMove = null;
+    }
+
+    /**
+     * Return the position for this GameContext.
+     * @return headless position of the game
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Return the isRedTurn for this GameContext.
+     * @return isRedTurn
+     */
+    public boolean isRedTurn() {
+        return position.isRedTurn();
+    }
+
+}
@@ -0,0 +1,203 @@
+package ver2;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ *
+ * GameFile.class
+ *
+ * Saved game in a compact, versioned binary layout (big-endian):
+ * - int   magic number "CHSG"
+ * - byte  version of the layout
+ * - byte  flags, bit 0 set when red team is played by the computer
+ * - the position the game started from:
+ *   - long  occupied squares
+ *   - bytes piece code of each occupied square in square order, 4 bits each
+ *   - byte  team to move, castling rights and En Passant square (or 0xFF)
+ *   - short halfmove clock and fullmove number
+ * - short number of moves made since, then each move as a short: from
+ *   square, to square and promotion type (the flag is found again
+ *   among the legal moves when reading)
+ *
+ * A game from the starting position takes 39 bytes plus 2 per move.
+ * Reading plays every move again on the start position, so the loaded
+ * position still knows the moves made before, e.g. for repetitions.
+ */
+public class GameFile {
+
+    /**
+     * Magic number at the start of every saved game.
+     */
+    private static final int MAGIC = 0x43485347;
+
+    /**
+     * Version of the layout written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Flag of a game against the computer.
+     */
+    private static final int VS_COMPUTER = 1;
+
+    /**
+     * Position of the game, with its moves made on it.
+     */
+    private final Position position;
+
+    /**
+     * Indicates whether the red team is played by the computer.
+     */
+    private final boolean vsComputer;
+
+    /**
+     * Constructs an object of type GameFile.
+     * @param position
+     *              position of the game, with its moves made on it.
+     * @param vsComputer
+     *              whether the red team is played by the computer.
+     */
+    public GameFile(Position position, boolean vsComputer) {
+        this.position = position;
+        this.vsComputer = vsComputer;
+    }
+
+    /**
+     * Writes the game.
+     * @param out
+     *              stream to write to, left open.
+     * @throws IOException
+     *              if the stream cannot be written.
+     */
+    public void write(OutputStream out) throws IOException {
+        Position start = new Position(position);
+        int[] moves = new int[start.getPly()];
+        for (int i = moves.length - 1; i >= 0; i--) {
+            moves[i] = start.getLastMove();
+            start.unmakeMove();
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(vsComputer ? VS_COMPUTER : 0);
+        long occupied = start.occupied();
+        data.writeLong(occupied);
+        int packed = 0;
+        int count = 0;
+        for (long pieces = occupied; pieces != 0; pieces &= pieces - 1) {
+            packed = packed << 4 | start.pieceAt(Long.numberOfTrailingZeros(pieces));
+            if (++count % 2 == 0) {
+                data.writeByte(packed);
+                packed = 0;
+            }
+        }
+        if (count % 2 != 0)
+            data.writeByte(packed << 4);
+        data.writeByte(start.getSide());
+        data.writeByte(start.getCastling());
+        data.writeByte(start.getEnPassant());
+        data.writeShort(start.getHalfmoveClock());
+        data.writeShort(start.getFullmoveNumber());
+        data.writeShort(moves.length);
+        for (int move : moves)
+            data.writeShort(encode(move));
+        data.flush();
+    }
+
+    /**
+     * Reads a game written by write().
+     * @param in
+     *              stream to read from, left open.
+     * @return the game read.
+     * @throws IOException
+     *              if the stream cannot be read or does not hold a valid game.
+     */
+    public static GameFile read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+            throw new IOException("Not a saved game");
+        int version = data.readUnsignedByte();
+        if (version > VERSION)
+            throw new IOException("Saved game version " + version + " is not supported");
+        boolean vsComputer = (data.readUnsignedByte() & VS_COMPUTER) != 0;
+        Position position = new Position();
+        long occupied = data.readLong();
+        int packed = 0;
+        int count = 0;
+        for (long pieces = occupied; pieces != 0; pieces &= pieces - 1) {
+            if (count++ % 2 == 0)
+                packed = data.readUnsignedByte();
+            int piece = count % 2 != 0 ? packed >>> 4 : packed & 15;
+            if (piece > Position.piece(Position.RED, Position.KING))
+                throw new IOException("Not a saved game");
+            position.put(piece, Long.numberOfTrailingZeros(pieces));
+        }
+        int side = data.readUnsignedByte();
+        int castling = data.readUnsignedByte();
+        int enPassant = data.readByte();
+        if (side > Position.RED || castling > 15 || enPassant != Position.EMPTY
+                && (enPassant < 0 || Position.row(enPassant) != (side == Position.BLUE ? 2 : 5)))
+            throw new IOException("Not a saved game");
+        position.setSide(side);
+        position.setCastling(castling);
+        position.setEnPassant(enPassant);
+        position.setHalfmoveClock(data.readUnsignedShort());
+        position.setFullmoveNumber(data.readUnsignedShort());
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        for (int moves = data.readUnsignedShort(); moves > 0; moves--) {
+            int move = decode(position, data.readUnsignedShort(), legal);
+            if (move == Move.NONE)
+                throw new IOException("Illegal move in saved game");
+            position.makeMove(move);
+        }
+        return new GameFile(position, vsComputer);
+    }
+
+    /**
+     * Encodes a move in 15 bits: from square, to square and promotion type.
+     * @param move
+     *              packed move.
+     * @return encoded move
+     */
+    static int encode(int move) {
+        return Move.from(move) | Move.to(move) << 6 | Move.promotion(move) << 12;
+    }
+
+    /**
+     * Finds the legal move an encoded move stands for.
+     * @param position
+     *              the position the move is made in.
+     * @param encoded
+     *              move encoded by encode().
+     * @param legal
+     *              array to generate the legal moves in.
+     * @return packed legal move, or Move.NONE if it is not legal here.
+     */
+    static int decode(Position position, int encoded, int[] legal) {
+        int count = MoveGenerator.generate(position, legal);
+        for (int i = 0; i < count; i++)
+            if (encode(legal[i]) == encoded)
+                return legal[i];
+        return Move.NONE;
+    }
+
+    /**
+     * Return the position for this GameFile.
+     * @return position of the game, with its moves made on it
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Return the vsComputer for this GameFile.
+     * @return vsComputer
+     */
+    public boolean isVsComputer() {
+        return vsComputer;
+    }
+
+}
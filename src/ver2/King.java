@@ -53,7 +53,13 @@ public class King extends Chess {
         this.firstRound = firstRound;
     }
 
-    
-    
+    /**
+     * Return the type of this King.
+     * @return Position.KING
+     */
+    @Override
+    public int getType() {
+        return Position.KING;
+    }
 
 }
@@ -32,4 +32,13 @@ public class Knight extends Chess {
         setImageAddress(isRed?"Knight-l.png":"Knight-d.png");
     }
 
+    /**
+     * Return the type of this Knight.
+     * @return Position.KNIGHT
+     */
+    @Override
+    public int getType() {
+        return Position.KNIGHT;
+    }
+
 }
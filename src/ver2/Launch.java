@@ -1,15 +1,26 @@
 package ver2;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javafx.application.Application;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
@@ -28,6 +39,16 @@ import javafx.stage.StageStyle;
  */
 public class Launch extends Application {
     
+    /**
+     * Journal file of the game being played, recovered on startup.
+     */
+    private static final String JOURNAL_FILE = "journal.bin";
+    
+    /**
+     * Number of moves journaled between two forces to disk.
+     */
+    private static final int JOURNAL_BATCH = 8;
+    
     /**
      * Game stage of this chess game.
      */
@@ -47,6 +68,11 @@ public class Launch extends Application {
      * MenuBar of this chess game.
      */
     private static MenuBar menuBar;
+    
+    /**
+     * Journal of the game being played, or null if it cannot be written.
+     */
+    private static MoveJournal journal;
 
     /**
      * Drive the program
@@ -71,7 +97,19 @@ public class Launch extends Application {
         VBox vbox = new VBox();
         Scene scene;
         Launch.game = game;
-        chess = new Board();
+        Path journalFile = Paths.get(JOURNAL_FILE);
+        GameFile recovered = MoveJournal.recover(journalFile);
+        if (recovered != null && recovered.getPosition().getPly() > 0
+                && !MoveGenerator.hasNoMove(recovered.getPosition()))
+            chess = new Board(recovered.getPosition(), recovered.isVsComputer());
+        else
+            chess = new Board();
+        try {
+            journal = new MoveJournal(journalFile, JOURNAL_BATCH);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+        startJournal();
         
         menuBar = new MenuBar();
         Menu menuFile = new Menu("File");
@@ -83,8 +121,30 @@ public class Launch extends Application {
         load.setOnAction((event)->{           
             loadfile(); 
         });
-        menuFile.getItems().addAll(save, load);
-        menuBar.getMenus().add(menuFile);
+        MenuItem copyFen = new MenuItem("Copy FEN");
+        copyFen.setOnAction((event)->{
+            copyFen();
+        });
+        MenuItem pasteFen = new MenuItem("Paste FEN");
+        pasteFen.setOnAction((event)->{
+            pasteFen();
+        });
+        MenuItem exportPgn = new MenuItem("Export PGN");
+        exportPgn.setOnAction((event)->{
+            exportPgn();
+        });
+        menuFile.getItems().addAll(save, load, copyFen, pasteFen, exportPgn);
+        Menu menuGame = new Menu("Game");
+        MenuItem twoPlayers = new MenuItem("Two Players");
+        twoPlayers.setOnAction((event)->{
+            newGame(false);
+        });
+        MenuItem vsComputer = new MenuItem("Play vs Computer");
+        vsComputer.setOnAction((event)->{
+            newGame(true);
+        });
+        menuGame.getItems().addAll(twoPlayers, vsComputer);
+        menuBar.getMenus().addAll(menuFile, menuGame);
         
         vbox.getChildren().addAll(menuBar, chess);
 
@@ -96,6 +156,78 @@ public class Launch extends Application {
         
     }
     
+    /**
+     * Start a new game.
+     * @param vsComputer
+     *              whether the red team is played by the computer.
+     */
+    private void newGame(boolean vsComputer) {
+        setGame(new Board(vsComputer));
+    }
+    
+    /**
+     * Replace the current game with another one.
+     * @param board
+     *              board of the game to show.
+     */
+    private void setGame(Board board) {
+        chess.getRule().shutdown();
+        chess = board;
+        startJournal();
+        VBox v = new VBox(menuBar, chess);
+        Scene s = new Scene(v, 800, 825, Color.BLACK);
+        game.setScene(s);
+    }
+    
+    /**
+     * Start the journal over with the current game.
+     */
+    private static void startJournal() {
+        if (journal == null)
+            return;
+        try {
+            journal.start(new GameFile(chess.getRule().getPosition(), chess.isVsComputer()));
+            chess.getRule().setJournal(journal);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+    
+    @Override
+    /**
+     * Stop the computer opponent and close the journal when the game window closes.
+     * @see javafx.application.Application#stop()
+     * @throws Exception
+     */
+    public void stop() throws Exception {
+        chess.getRule().shutdown();
+        if (journal != null)
+            journal.close();
+    }
+    
+    /**
+     * Copy the FEN of the current position to the clipboard.
+     */
+    private void copyFen() {
+        ClipboardContent content = new ClipboardContent();
+        content.putString(Fen.write(chess.getRule().getPosition()));
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+    
+    /**
+     * Set up the position of the FEN on the clipboard as a new game.
+     */
+    private void pasteFen() {
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        if (!clipboard.hasString())
+            return;
+        try {
+            setGame(new Board(Fen.parse(clipboard.getString().trim()), chess.isVsComputer()));
+        } catch (IllegalArgumentException exc) {
+            exc.printStackTrace();
+        }
+    }
+    
     /**
      * Load and return saved game.
      */
@@ -107,18 +239,15 @@ public class Launch extends Application {
                 "*.I-am-a-chess-game-save-data-and-I-have-a-very-long-long-long-long-suffix"));
         File file = chooser.showOpenDialog(game);
         if (file != null) {
-            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-                load = (Board) in.readObject();
-                load.restore();
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                GameFile saved = GameFile.read(in);
+                load = new Board(saved.getPosition(), saved.isVsComputer());
             } catch (Exception exc) {
                 exc.printStackTrace();
             }
         }
-        if(load != null) {
-            VBox v = new VBox(menuBar, load);
-            Scene s = new Scene(v, 800, 825, Color.BLACK);
-            game.setScene(s);
-        }
+        if(load != null)
+            setGame(load);
         
     }
 
@@ -132,15 +261,35 @@ public class Launch extends Application {
                 "*.I-am-a-chess-game-save-data-and-I-have-a-very-long-long-long-long-suffix"));
         File file = chooser.showSaveDialog(game);
         if (file != null) {
-            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
-                chess.save();
-                out.writeObject(chess);
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                new GameFile(chess.getRule().getPosition(), chess.isVsComputer()).write(out);
             } catch (Exception exc) {
                 exc.printStackTrace();
             }
 }
     }
 
+    /**
+     * Export current game as a PGN file.
+     */
+    private void exportPgn() {
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().add(new ExtensionFilter("Portable Game Notation", "*.pgn"));
+        File file = chooser.showSaveDialog(game);
+        if (file != null) {
+            Map<String, String> tags = new LinkedHashMap<String, String>();
+            tags.put("Event", "Chess Game");
+            tags.put("Date", new SimpleDateFormat("yyyy.MM.dd").format(new Date()));
+            tags.put("White", "Blue");
+            tags.put("Black", chess.isVsComputer() ? "Computer" : "Red");
+            try (PgnWriter out = new PgnWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+                out.write(tags, chess.getRule().getPosition());
+            } catch (Exception exc) {
+                exc.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Pop up a window to interact with players.
      * @param n
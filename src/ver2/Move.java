@@ -0,0 +1,119 @@
+package ver2;
+
+/**
+ *
+ * Move.class
+ *
+ * Packs a chess move into a single int, so moves can be kept in
+ * primitive arrays without creating objects.
+ *
+ * Layout: bits 0-5 from square, bits 6-11 to square,
+ * bits 12-14 promotion type and bits 15-16 special move flag.
+ */
+public class Move {
+
+    /**
+     * No move.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Special move flags.
+     */
+    public static final int NORMAL = 0;
+    public static final int EN_PASSANT = 1;
+    public static final int CASTLING = 2;
+
+    /**
+     * Creates a normal move.
+     * @param from
+     *              the square to move from.
+     * @param to
+     *              the square to move to.
+     * @return packed move.
+     */
+    public static int of(int from, int to) {
+        return from | to << 6;
+    }
+
+    /**
+     * Creates a special move.
+     * @param from
+     *              the square to move from.
+     * @param to
+     *              the square to move to.
+     * @param flag
+     *              EN_PASSANT or CASTLING.
+     * @return packed move.
+     */
+    public static int of(int from, int to, int flag) {
+        return from | to << 6 | flag << 15;
+    }
+
+    /**
+     * Creates a pawn promotion move.
+     * @param from
+     *              the square to move from.
+     * @param to
+     *              the square to move to.
+     * @param type
+     *              the piece type to promote to.
+     * @return packed move.
+     */
+    public static int promotion(int from, int to, int type) {
+        return from | to << 6 | type << 12;
+    }
+
+    /**
+     * Return the from square of a move.
+     * @param move
+     *              packed move.
+     * @return from square
+     */
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    /**
+     * Return the to square of a move.
+     * @param move
+     *              packed move.
+     * @return to square
+     */
+    public static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    /**
+     * Return the promotion type of a move.
+     * @param move
+     *              packed move.
+     * @return piece type to promote to, or 0 if this move is not a promotion.
+     */
+    public static int promotion(int move) {
+        return move >>> 12 & 7;
+    }
+
+    /**
+     * Return the special move flag of a move.
+     * @param move
+     *              packed move.
+     * @return NORMAL, EN_PASSANT or CASTLING.
+     */
+    public static int flag(int move) {
+        return move >>> 15 & 3;
+    }
+
+    /**
+     * Return toString description of a move(Testing purpose).
+     * @param move
+     *              packed move.
+     * @return from and to square as "col,row-col,row"
+     */
+    public static String toString(int move) {
+        return Position.col(from(move)) + "," + Position.row(from(move)) + "-"
+                + Position.col(to(move)) + "," + Position.row(to(move))
+                + (promotion(move) != 0 ? "=" + "PNBRQK".charAt(promotion(move)) : "");
+    }
+
+}
@@ -0,0 +1,263 @@
+package ver2;
+
+/**
+ *
+ * MoveGenerator.class
+ *
+ * Generates the legal moves of a Position.
+ *
+ * Checkers and pinned pieces are computed once per position, then
+ * every piece's targets are restricted to the squares that resolve
+ * a check and to the line it is pinned on. No move is tried and
+ * undone to test its legality.
+ */
+public class MoveGenerator {
+
+    /**
+     * Largest number of legal moves any chess position can have.
+     */
+    public static final int MAX_MOVES = 256;
+
+    /**
+     * Squares on the first and last row, where pawns promote.
+     */
+    private static final long PROMOTION_ROWS = 0xFF000000000000FFL;
+
+    /**
+     * Generates all legal moves of the team to move.
+     * @param position
+     *              the position to generate moves for.
+     * @param moves
+     *              array to fill with packed moves, at least MAX_MOVES long.
+     * @return number of moves generated.
+     */
+    public static int generate(Position position, int[] moves) {
+        return generate(position, moves, false);
+    }
+
+    /**
+     * Generates the legal captures and promotions of the team to move,
+     * for the quiescence search.
+     * @param position
+     *              the position to generate moves for.
+     * @param moves
+     *              array to fill with packed moves, at least MAX_MOVES long.
+     * @return number of moves generated.
+     */
+    public static int generateCaptures(Position position, int[] moves) {
+        return generate(position, moves, true);
+    }
+
+    /**
+     * Generates the legal moves of the team to move.
+     * @param position
+     *              the position to generate moves for.
+     * @param moves
+     *              array to fill with packed moves, at least MAX_MOVES long.
+     * @param captures
+     *              whether to generate captures and promotions only.
+     * @return number of moves generated.
+     */
+    private static int generate(Position position, int[] moves, boolean captures) {
+        int us = position.getSide();
+        int them = us ^ 1;
+        long own = position.pieces(us);
+        long enemy = position.pieces(them);
+        long occupied = own | enemy;
+        int king = position.king(us);
+        int count = 0;
+        if (king == Position.EMPTY)
+            return generatePseudo(position, moves, ~own, captures);
+
+        long checkers = position.checkers();
+        long noKing = occupied ^ 1L << king;
+        for (long targets = Attacks.king(king) & (captures ? enemy : ~own); targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if ((position.attackersTo(to, noKing) & enemy) == 0)
+                moves[count++] = Move.of(king, to);
+        }
+        if (checkers != 0 && (checkers & (checkers - 1)) != 0)
+            return count;
+
+        long checkMask = ~own;
+        if (checkers != 0) {
+            int checker = Long.numberOfTrailingZeros(checkers);
+            checkMask = checkers | Attacks.between(king, checker);
+        } else if (!captures)
+            count = generateCastling(position, moves, count, king);
+
+        long pinned = position.pinned(us);
+        for (long pieces = own & ~(1L << king); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long targets = targets(position, from, us, occupied, enemy) & checkMask;
+            if (captures)
+                targets &= capturesMask(position, from, enemy);
+            if ((pinned & 1L << from) != 0)
+                targets &= Attacks.line(king, from);
+            count = addMoves(position, moves, count, from, targets);
+        }
+
+        int enPassant = position.getEnPassant();
+        if (enPassant != Position.EMPTY)
+            for (long pawns = Attacks.pawn(them, enPassant) & position.pieces(us, Position.PAWN);
+                    pawns != 0; pawns &= pawns - 1) {
+                int from = Long.numberOfTrailingZeros(pawns);
+                long captured = 1L << (us == Position.RED ? enPassant - 8 : enPassant + 8);
+                long after = occupied ^ 1L << from ^ captured | 1L << enPassant;
+                if ((position.attackersTo(king, after) & enemy & ~captured) == 0)
+                    moves[count++] = Move.of(from, enPassant, Move.EN_PASSANT);
+            }
+        return count;
+    }
+
+    /**
+     * Generates the moves of the team to move without checking its king,
+     * for positions that have no king (test setups).
+     * @param position
+     *              the position to generate moves for.
+     * @param moves
+     *              array to fill with packed moves.
+     * @param allowed
+     *              squares the pieces may move to.
+     * @param captures
+     *              whether to generate captures and promotions only.
+     * @return number of moves generated.
+     */
+    private static int generatePseudo(Position position, int[] moves, long allowed, boolean captures) {
+        int us = position.getSide();
+        long occupied = position.occupied();
+        long enemy = position.pieces(us ^ 1);
+        int count = 0;
+        for (long pieces = position.pieces(us); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long targets = targets(position, from, us, occupied, enemy) & allowed;
+            if (captures)
+                targets &= capturesMask(position, from, enemy);
+            count = addMoves(position, moves, count, from, targets);
+        }
+        int enPassant = position.getEnPassant();
+        if (enPassant != Position.EMPTY)
+            for (long pawns = Attacks.pawn(us ^ 1, enPassant) & position.pieces(us, Position.PAWN);
+                    pawns != 0; pawns &= pawns - 1)
+                moves[count++] = Move.of(Long.numberOfTrailingZeros(pawns), enPassant, Move.EN_PASSANT);
+        return count;
+    }
+
+    /**
+     * Gets the squares a piece may move to, ignoring checks and pins.
+     * @param position
+     *              the position the piece is in.
+     * @param from
+     *              the square of the piece.
+     * @param us
+     *              color of the piece.
+     * @param occupied
+     *              occupancy of both teams.
+     * @param enemy
+     *              occupancy of the enemy team.
+     * @return mask of target squares.
+     */
+    private static long targets(Position position, int from, int us, long occupied, long enemy) {
+        switch (Position.type(position.pieceAt(from))) {
+            case Position.PAWN:
+                return Attacks.pawnPush(us, from, occupied) | Attacks.pawn(us, from) & enemy;
+            case Position.KNIGHT:
+                return Attacks.knight(from) & ~(occupied ^ enemy);
+            case Position.BISHOP:
+                return Attacks.bishop(from, occupied) & ~(occupied ^ enemy);
+            case Position.ROOK:
+                return Attacks.rook(from, occupied) & ~(occupied ^ enemy);
+            case Position.QUEEN:
+                return Attacks.queen(from, occupied) & ~(occupied ^ enemy);
+            default:
+                return Attacks.king(from) & ~(occupied ^ enemy);
+        }
+    }
+
+    /**
+     * Gets the squares a piece may capture or promote on.
+     * @param position
+     *              the position the piece is in.
+     * @param from
+     *              the square of the piece.
+     * @param enemy
+     *              occupancy of the enemy team.
+     * @return mask of enemy pieces, and of the last rows for a pawn.
+     */
+    private static long capturesMask(Position position, int from, long enemy) {
+        return Position.type(position.pieceAt(from)) == Position.PAWN ? enemy | PROMOTION_ROWS : enemy;
+    }
+
+    /**
+     * Adds a move to every target square, expanding pawn moves onto
+     * the last row into the four promotions.
+     * @param position
+     *              the position the piece is in.
+     * @param moves
+     *              array to fill with packed moves.
+     * @param count
+     *              number of moves already in the array.
+     * @param from
+     *              the square of the piece.
+     * @param targets
+     *              mask of target squares.
+     * @return new number of moves in the array.
+     */
+    private static int addMoves(Position position, int[] moves, int count, int from, long targets) {
+        boolean pawn = Position.type(position.pieceAt(from)) == Position.PAWN;
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if (pawn && (Position.row(to) == 0 || Position.row(to) == 7)) {
+                moves[count++] = Move.promotion(from, to, Position.QUEEN);
+                moves[count++] = Move.promotion(from, to, Position.ROOK);
+                moves[count++] = Move.promotion(from, to, Position.BISHOP);
+                moves[count++] = Move.promotion(from, to, Position.KNIGHT);
+            } else
+                moves[count++] = Move.of(from, to);
+        }
+        return count;
+    }
+
+    /**
+     * Adds the castling moves of the team to move, which is not in check.
+     * The king and the rook in the corner must not have moved, nothing may
+     * stand between them and the king may not cross or land on a square
+     * under attack.
+     * @param position
+     *              the position to generate moves for.
+     * @param moves
+     *              array to fill with packed moves.
+     * @param count
+     *              number of moves already in the array.
+     * @param king
+     *              the square of the king.
+     * @return new number of moves in the array.
+     */
+    private static int generateCastling(Position position, int[] moves, int count, int king) {
+        int us = position.getSide();
+        long occupied = position.occupied();
+        for (int col = 0; col < 8; col += 7) {
+            int rook = Position.square(col, Position.row(king));
+            if ((position.getCastling() & Position.castlingRight(us, rook)) == 0
+                    || position.pieceAt(rook) != Position.piece(us, Position.ROOK)
+                    || Math.abs(col - Position.col(king)) < 3
+                    || (Attacks.between(king, rook) & occupied) != 0)
+                continue;
+            int step = rook > king ? 1 : -1;
+            if (!position.isAttacked(king + step, us ^ 1) && !position.isAttacked(king + 2 * step, us ^ 1))
+                moves[count++] = Move.of(king, king + 2 * step, Move.CASTLING);
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the team to move has no legal move left.
+     * @param position
+     *              the position to be checked.
+     * @return whether there is no legal move.
+     */
+    public static boolean hasNoMove(Position position) {
+        return generate(position, new int[MAX_MOVES]) == 0;
+    }
+
+}
@@ -0,0 +1,229 @@
+package ver2;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * MoveJournal.class
+ *
+ * Append-only journal of the game being played, so it can be recovered
+ * after a crash. It holds (big-endian):
+ * - int   magic number "CHSJ"
+ * - byte  version of the layout
+ * - int   length of the game the journal starts from, then that game
+ *         as written by GameFile
+ * - short each move made since, encoded as in GameFile, or TAKE_BACK
+ *
+ * Each move costs one 2 byte write. Writes reach the operating system
+ * at once, so a crash of the program loses nothing; the file is only
+ * forced to disk (fsync) every few moves, so a crash of the machine
+ * loses at most that many. Starting over writes the new journal to a
+ * temporary file, forces it and renames it over the old one in one
+ * step, so a crash at any point leaves one whole journal or the other.
+ */
+public class MoveJournal {
+
+    /**
+     * Magic number at the start of every journal.
+     */
+    private static final int MAGIC = 0x4348534A;
+
+    /**
+     * Version of the layout written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Record taking back the last move.
+     */
+    private static final int TAKE_BACK = 0xFFFF;
+
+    /**
+     * Bytes of the header before the game.
+     */
+    private static final int HEADER_BYTES = 9;
+
+    /**
+     * The journal file.
+     */
+    private final Path file;
+
+    /**
+     * Channel appending to the journal file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Number of moves written between two forces to disk.
+     */
+    private final int batch;
+
+    /**
+     * Number of records written since the last force to disk.
+     */
+    private int unforced;
+
+    /**
+     * Buffer of one record.
+     */
+    private final ByteBuffer record = ByteBuffer.allocate(2);
+
+    /**
+     * Constructs an object of type MoveJournal.
+     * The journal file is left as it is until start().
+     * @param file
+     *              the journal file, created if it does not exist.
+     * @param batch
+     *              number of moves written between two forces to disk.
+     * @throws IOException
+     *              if the file cannot be opened.
+     */
+    public MoveJournal(Path file, int batch) throws IOException {
+        this.file = file;
+        channel = open(file);
+        this.batch = Math.max(1, batch);
+    }
+
+    /**
+     * Opens a journal file for appending.
+     * @param file
+     *              the journal file, created if it does not exist.
+     * @return channel appending to the file.
+     * @throws IOException
+     *              if the file cannot be opened.
+     */
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Starts the journal over with a new game. The old journal stays
+     * whole until the new one is on disk and replaces it.
+     * @param game
+     *              the game, with the moves already made on it.
+     * @throws IOException
+     *              if the journal cannot be written.
+     */
+    public void start(GameFile game) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(0);
+        game.write(data);
+        ByteBuffer header = ByteBuffer.wrap(bytes.toByteArray());
+        header.putInt(HEADER_BYTES - 4, header.limit() - HEADER_BYTES);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining())
+                out.write(header);
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = open(file);
+        unforced = 0;
+    }
+
+    /**
+     * Appends a move.
+     * @param move
+     *              packed move just made.
+     * @throws IOException
+     *              if the journal cannot be written.
+     */
+    public void append(int move) throws IOException {
+        write(GameFile.encode(move));
+    }
+
+    /**
+     * Appends the taking back of the last move.
+     * @throws IOException
+     *              if the journal cannot be written.
+     */
+    public void takeBack() throws IOException {
+        write(TAKE_BACK);
+    }
+
+    /**
+     * Writes a record, and forces the journal to disk once a batch is full.
+     * @param value
+     *              the record.
+     * @throws IOException
+     *              if the journal cannot be written.
+     */
+    private void write(int value) throws IOException {
+        record.clear();
+        record.putShort((short) value).flip();
+        while (record.hasRemaining())
+            channel.write(record);
+        if (++unforced >= batch) {
+            channel.force(false);
+            unforced = 0;
+        }
+    }
+
+    /**
+     * Forces the journal to disk and closes it.
+     * @throws IOException
+     *              if the journal cannot be written.
+     */
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Recovers the game of a journal, replaying its moves. A move cut
+     * off by a crash, and anything after it, is left out.
+     * @param file
+     *              the journal file.
+     * @return the game, or null if there is no journal or it cannot be read.
+     */
+    public static GameFile recover(Path file) {
+        if (!Files.exists(file))
+            return null;
+        try {
+            ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (journal.remaining() < HEADER_BYTES || journal.getInt() != MAGIC || journal.get() > VERSION)
+                return null;
+            int length = journal.getInt();
+            if (length < 0 || length > journal.remaining())
+                return null;
+            GameFile game = GameFile.read(new ByteArrayInputStream(journal.array(), HEADER_BYTES, length));
+            journal.position(HEADER_BYTES + length);
+            Position position = game.getPosition();
+            int[] legal = new int[MoveGenerator.MAX_MOVES];
+            while (journal.remaining() >= 2) {
+                int value = journal.getShort() & 0xFFFF;
+                if (value == TAKE_BACK) {
+                    if (position.getPly() == 0)
+                        break;
+                    position.unmakeMove();
+                    continue;
+                }
+                int move = GameFile.decode(position, value, legal);
+                if (move == Move.NONE)
+                    break;
+                position.makeMove(move);
+            }
+            return game;
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return null;
+        }
+    }
+
+}
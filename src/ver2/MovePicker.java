@@ -0,0 +1,169 @@
+package ver2;
+
+/**
+ *
+ * MovePicker.class
+ *
+ * Hands the legal moves of a position to the search one at a time,
+ * most promising first, so alpha-beta cuts off as early as possible:
+ * - the hash move from the transposition table
+ * - captures and promotions, most valuable victim first and then
+ *   least valuable attacker first (MVV-LVA)
+ * - the killer moves, quiet moves that cut off at the same ply before
+ * - other quiet moves, by their history score
+ * - captures losing material by static exchange (Evaluation.see)
+ *
+ * For the quiescence search it picks captures and promotions only,
+ * and drops the losing captures altogether.
+ *
+ * Moves and their sort keys are kept in int arrays that are reused
+ * for every position, and each move is picked out of the remaining
+ * ones only when asked for, so a cutoff skips sorting the rest.
+ */
+public class MovePicker {
+
+    /**
+     * Sort key of the hash move.
+     */
+    private static final int HASH = 1 << 30;
+
+    /**
+     * Lowest sort key of a capture or promotion.
+     */
+    private static final int CAPTURE = 1 << 28;
+
+    /**
+     * Sort key of the first killer move, the second one is one less.
+     */
+    private static final int KILLER = 1 << 27;
+
+    /**
+     * Sort key of a capture losing material, under every quiet move.
+     */
+    private static final int LOSING_CAPTURE = -(1 << 28);
+
+    /**
+     * Largest history score, kept under the killer moves.
+     */
+    public static final int HISTORY_MAX = 1 << 26;
+
+    /**
+     * Legal moves of the position.
+     */
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+    /**
+     * Sort key of each move.
+     */
+    private final int[] keys = new int[MoveGenerator.MAX_MOVES];
+
+    /**
+     * Number of legal moves.
+     */
+    private int count;
+
+    /**
+     * Number of moves already picked.
+     */
+    private int picked;
+
+    /**
+     * Generates and scores the legal moves of a position.
+     * @param position
+     *              the position to pick moves for.
+     * @param hashMove
+     *              best move from the transposition table, or Move.NONE.
+     * @param killers
+     *              killer moves of this ply, or Move.NONE.
+     * @param history
+     *              history score of each piece code moving to each square.
+     * @return number of legal moves.
+     */
+    public int init(Position position, int hashMove, int[] killers, int[][] history) {
+        count = MoveGenerator.generate(position, moves);
+        picked = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int piece = position.pieceAt(Move.from(move));
+            if (move == hashMove)
+                keys[i] = HASH;
+            else if (!isQuiet(position, move))
+                keys[i] = (Evaluation.see(position, move, 0) ? CAPTURE : LOSING_CAPTURE)
+                        + mvvLva(position, move);
+            else if (move == killers[0])
+                keys[i] = KILLER;
+            else if (move == killers[1])
+                keys[i] = KILLER - 1;
+            else
+                keys[i] = history[piece][Move.to(move)];
+        }
+        return count;
+    }
+
+    /**
+     * Generates and scores the legal captures and promotions of a position
+     * for the quiescence search, leaving out captures losing material.
+     * @param position
+     *              the position to pick moves for.
+     * @return number of moves left to pick.
+     */
+    public int initCaptures(Position position) {
+        int generated = MoveGenerator.generateCaptures(position, moves);
+        count = 0;
+        picked = 0;
+        for (int i = 0; i < generated; i++)
+            if (Evaluation.see(position, moves[i], 0)) {
+                moves[count] = moves[i];
+                keys[count++] = mvvLva(position, moves[i]);
+            }
+        return count;
+    }
+
+    /**
+     * Picks the best move not picked yet.
+     * @return packed move, or Move.NONE when all moves have been picked.
+     */
+    public int next() {
+        if (picked == count)
+            return Move.NONE;
+        int best = picked;
+        for (int i = picked + 1; i < count; i++)
+            if (keys[i] > keys[best])
+                best = i;
+        int move = moves[best];
+        moves[best] = moves[picked];
+        keys[best] = keys[picked];
+        picked++;
+        return move;
+    }
+
+    /**
+     * Gets the MVV-LVA key of a capture or promotion: most valuable
+     * victim first, then best promotion, then least valuable attacker.
+     * @param position
+     *              the position the move is made in.
+     * @param move
+     *              packed move.
+     * @return sort key below 1024.
+     */
+    private static int mvvLva(Position position, int move) {
+        int victim = Move.flag(move) == Move.EN_PASSANT ? Position.PAWN
+                : Position.type(position.pieceAt(Move.to(move)));
+        return (victim == Position.EMPTY ? 0 : (victim + 1) * 64)
+                + Move.promotion(move) * 8 + Position.KING - Position.type(position.pieceAt(Move.from(move)));
+    }
+
+    /**
+     * Checks whether a move neither captures nor promotes.
+     * @param position
+     *              the position the move is made in.
+     * @param move
+     *              packed move.
+     * @return whether the move is quiet.
+     */
+    public static boolean isQuiet(Position position, int move) {
+        return position.pieceAt(Move.to(move)) == Position.EMPTY
+                && Move.flag(move) != Move.EN_PASSANT && Move.promotion(move) == 0;
+    }
+
+}
@@ -0,0 +1,111 @@
+package ver2;
+
+/**
+ *
+ * MoveStatistics.class
+ *
+ * How one move from a position turned out in the games of a
+ * GameArchive: how often it was played and how those games ended.
+ */
+public class MoveStatistics {
+
+    /**
+     * The move, packed.
+     */
+    private final int move;
+
+    /**
+     * Number of games the move was played in.
+     */
+    private long games;
+
+    /**
+     * Number of those games blue team won.
+     */
+    private long blueWins;
+
+    /**
+     * Number of those games red team won.
+     */
+    private long redWins;
+
+    /**
+     * Number of those games drawn.
+     */
+    private long draws;
+
+    /**
+     * Constructs an object of type MoveStatistics.
+     * @param move
+     *              the move, packed.
+     */
+    public MoveStatistics(int move) {
+        this.move = move;
+    }
+
+    /**
+     * Counts one more game the move was played in.
+     * @param result
+     *              result of the game, one of the GameArchive results.
+     */
+    void add(int result) {
+        games++;
+        if (result == GameArchive.BLUE_WIN)
+            blueWins++;
+        else if (result == GameArchive.RED_WIN)
+            redWins++;
+        else if (result == GameArchive.DRAW)
+            draws++;
+    }
+
+    /**
+     * Return the move for this MoveStatistics.
+     * @return packed move
+     */
+    public int getMove() {
+        return move;
+    }
+
+    /**
+     * Return the games for this MoveStatistics.
+     * @return number of games the move was played in
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Return the blueWins for this MoveStatistics.
+     * @return number of those games blue team won
+     */
+    public long getBlueWins() {
+        return blueWins;
+    }
+
+    /**
+     * Return the redWins for this MoveStatistics.
+     * @return number of those games red team won
+     */
+    public long getRedWins() {
+        return redWins;
+    }
+
+    /**
+     * Return the draws for this MoveStatistics.
+     * @return number of those games drawn
+     */
+    public long getDraws() {
+        return draws;
+    }
+
+    /**
+     * Return toString description of this MoveStatistics.
+     * @see java.lang.Object#toString()
+     * @return toString description
+     */
+    @Override
+    public String toString() {
+        return Move.toString(move) + " " + games + " games +" + blueWins + " =" + draws + " -" + redWins;
+    }
+
+}
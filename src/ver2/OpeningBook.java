@@ -0,0 +1,329 @@
+package ver2;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * OpeningBook.class
+ *
+ * Opening book in the Polyglot .bin layout: entries of 16 big-endian
+ * bytes (key, move, weight, learn) sorted by key. The file is memory
+ * mapped read only and looked up by binary search, so a book move
+ * costs a few page reads and no search at all.
+ *
+ * Books are opened once per file and shared by every game in the
+ * program; lookups only read the mapping, so any number of threads
+ * can use a book at once.
+ *
+ * Books are not Polyglot compatible, only laid out like Polyglot's:
+ * keys are the Zobrist keys of Position.getKey(), not the keys of
+ * Polyglot's published Random64 table, so a third party .bin book
+ * opens but never matches a position. Nor would its lines fit this
+ * game, which starts from Board's own layout (red team's king and
+ * queen swapped), where no standard opening arises. Books are made
+ * for this game instead: main() makes one from PGN games that start
+ * from Board's layout, such as those the program exports, with
+ * write(). Moves use the Polyglot encoding: from and to squares as
+ * column and row counted from blue team's side, promotion piece, and
+ * castling as the king moving onto its rook.
+ *
+ * Usage: java ver2.OpeningBook book.bin file.pgn...
+ */
+public class OpeningBook {
+
+    /**
+     * Bytes of one entry.
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    /**
+     * Polyglot promotion piece of each Position type (0 for none).
+     */
+    private static final int[] PROMOTION = {0, 1, 2, 3, 4, 0};
+
+    /**
+     * Number of moves from the start of each game put in a book.
+     */
+    private static final int BOOK_PLIES = 24;
+
+    /**
+     * Books already opened, by file.
+     */
+    private static final ConcurrentHashMap<Path, OpeningBook> BOOKS = new ConcurrentHashMap<Path, OpeningBook>();
+
+    /**
+     * Read only mapping of the book file.
+     */
+    private final MappedByteBuffer entries;
+
+    /**
+     * Number of entries in the book.
+     */
+    private final int size;
+
+    /**
+     * Constructs an object of type OpeningBook.
+     * @param file
+     *              the book file to map.
+     * @throws IOException
+     *              if the file cannot be read or is not a book.
+     */
+    private OpeningBook(Path file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r");
+                FileChannel channel = in.getChannel()) {
+            if (channel.size() % ENTRY_BYTES != 0 || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Not an opening book: " + file);
+            entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            size = (int) (channel.size() / ENTRY_BYTES);
+        }
+    }
+
+    /**
+     * Opens a book file, or returns the book already opened for it.
+     * @param file
+     *              the book file.
+     * @return the shared book.
+     * @throws IOException
+     *              if the file cannot be read or is not a book.
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        OpeningBook book = BOOKS.get(key);
+        if (book == null) {
+            book = new OpeningBook(key);
+            OpeningBook opened = BOOKS.putIfAbsent(key, book);
+            if (opened != null)
+                book = opened;
+        }
+        return book;
+    }
+
+    /**
+     * Makes a book from the first moves of PGN games, as Polyglot does:
+     * each time a move is played it weighs 2 if the team that played it
+     * won, 1 for a draw or an unknown result and 0 if it lost, and moves
+     * that weigh nothing are left out. Only games from the starting
+     * position of Board are used, as Board plays from no other.
+     * @param args
+     *              book.bin file.pgn...
+     * @throws IOException
+     *              if a file cannot be read or the book cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<Long, Map<Integer, Integer>> positions = new HashMap<Long, Map<Integer, Integer>>();
+        long board = Position.start().getKey();
+        int entries = 0;
+        long games = 0;
+        long skipped = 0;
+        for (int i = 1; i < args.length; i++)
+            try (PgnReader reader = new PgnReader(FileChannel.open(Paths.get(args[i])))) {
+                while (reader.next()) {
+                    Position position = new Position(reader.getPosition());
+                    while (position.getPly() > 0)
+                        position.unmakeMove();
+                    if (position.getKey() != board) {
+                        skipped++;
+                        continue;
+                    }
+                    games++;
+                    String result = reader.getResult();
+                    int plies = Math.min(reader.getMoveCount(), BOOK_PLIES);
+                    for (int ply = 0; ply < plies; ply++) {
+                        int move = reader.getMove(ply);
+                        String win = position.getSide() == Position.BLUE ? "1-0" : "0-1";
+                        int weight = result.equals(win) ? 2 : result.equals("*") || result.startsWith("1/2") ? 1 : 0;
+                        if (weight > 0) {
+                            Map<Integer, Integer> moves = positions.get(position.getKey());
+                            if (moves == null)
+                                positions.put(position.getKey(), moves = new HashMap<Integer, Integer>());
+                            Integer old = moves.put(move, moves.containsKey(move) ? moves.get(move) + weight : weight);
+                            if (old == null)
+                                entries++;
+                        }
+                        position.makeMove(move);
+                    }
+                }
+            }
+        long[] keys = new long[entries];
+        int[] moves = new int[entries];
+        int[] weights = new int[entries];
+        int count = 0;
+        for (Map.Entry<Long, Map<Integer, Integer>> position : positions.entrySet()) {
+            int most = 0;
+            for (int weight : position.getValue().values())
+                most = Math.max(most, weight);
+            for (Map.Entry<Integer, Integer> move : position.getValue().entrySet()) {
+                keys[count] = position.getKey();
+                moves[count] = move.getKey();
+                weights[count++] = most <= 0xFFFF ? move.getValue()
+                        : (int) Math.max(1, (long) move.getValue() * 0xFFFF / most);
+            }
+        }
+        write(Paths.get(args[0]), keys, moves, weights);
+        System.out.println(count + " entries from " + games + " games written to " + args[0] + ", "
+                + skipped + " games from other starting positions skipped");
+    }
+
+    /**
+     * Picks a book move of the team to move, at random with each move's
+     * chance in proportion to its weight.
+     * @param position
+     *              the position to look up.
+     * @param random
+     *              random generator of the game.
+     * @return packed legal move, or Move.NONE if the position is not in the book.
+     */
+    public int pick(Position position, Random random) {
+        int first = find(position.getKey());
+        if (first == size || key(first) != position.getKey())
+            return Move.NONE;
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, legal);
+        int total = 0;
+        for (int i = first; i < size && key(i) == position.getKey(); i++)
+            if (toMove(legal, count, polyglotMove(i)) != Move.NONE)
+                total += weight(i);
+        if (total == 0)
+            return Move.NONE;
+        int chosen = random.nextInt(total);
+        for (int i = first; i < size && key(i) == position.getKey(); i++) {
+            int move = toMove(legal, count, polyglotMove(i));
+            if (move != Move.NONE && (chosen -= weight(i)) < 0)
+                return move;
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Finds the first entry of a key by binary search.
+     * @param key
+     *              Zobrist key to find.
+     * @return index of the first entry not below the key.
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(key(middle), key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Return the key of an entry.
+     * @param index
+     *              index of the entry.
+     * @return Zobrist key
+     */
+    private long key(int index) {
+        return entries.getLong(index * ENTRY_BYTES);
+    }
+
+    /**
+     * Return the Polyglot move of an entry.
+     * @param index
+     *              index of the entry.
+     * @return Polyglot move
+     */
+    private int polyglotMove(int index) {
+        return entries.getShort(index * ENTRY_BYTES + 8) & 0xFFFF;
+    }
+
+    /**
+     * Return the weight of an entry.
+     * @param index
+     *              index of the entry.
+     * @return weight
+     */
+    private int weight(int index) {
+        return entries.getShort(index * ENTRY_BYTES + 10) & 0xFFFF;
+    }
+
+    /**
+     * Return the number of entries in the book.
+     * @return size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /* Move Encoding */
+
+    /**
+     * Finds the legal move a Polyglot move stands for.
+     * @param legal
+     *              legal moves of the position, generated once per lookup.
+     * @param count
+     *              number of legal moves.
+     * @param polyglot
+     *              Polyglot move.
+     * @return packed legal move, or Move.NONE if it is not legal here.
+     */
+    private static int toMove(int[] legal, int count, int polyglot) {
+        for (int i = 0; i < count; i++)
+            if (toPolyglot(legal[i]) == polyglot)
+                return legal[i];
+        return Move.NONE;
+    }
+
+    /**
+     * Encodes a move as a Polyglot move.
+     * @param move
+     *              packed move.
+     * @return Polyglot move
+     */
+    public static int toPolyglot(int move) {
+        int from = Move.from(move);
+        int to = Move.flag(move) == Move.CASTLING ? Position.castlingRook(from, Move.to(move)) : Move.to(move);
+        return Position.col(to) | (7 - Position.row(to)) << 3
+                | Position.col(from) << 6 | (7 - Position.row(from)) << 9
+                | PROMOTION[Move.promotion(move)] << 12;
+    }
+
+    /**
+     * Writes a book file, sorting its entries by key.
+     * @param file
+     *              the book file to write.
+     * @param keys
+     *              Zobrist key of each entry's position.
+     * @param moves
+     *              packed move of each entry.
+     * @param weights
+     *              weight of each entry, up to 65535.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    public static void write(Path file, long[] keys, int[] moves, int[] weights) throws IOException {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(keys[a], keys[b]));
+        ByteBuffer buffer = ByteBuffer.allocate(keys.length * ENTRY_BYTES);
+        for (int i : order)
+            buffer.putLong(keys[i]).putShort((short) toPolyglot(moves[i]))
+                    .putShort((short) Math.min(weights[i], 0xFFFF)).putInt(0);
+        buffer.flip();
+        try (RandomAccessFile out = new RandomAccessFile(file.toFile(), "rw");
+                FileChannel channel = out.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        BOOKS.remove(file.toAbsolutePath().normalize());
+    }
+
+}
@@ -101,4 +101,13 @@ public class Pawn extends Chess {
         this.coundBeEnPassant = coundBeEnPassant;
     }
 
+    /**
+     * Return the type of this Pawn.
+     * @return Position.PAWN
+     */
+    @Override
+    public int getType() {
+        return Position.PAWN;
+    }
+
 }
@@ -0,0 +1,335 @@
+package ver2;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *
+ * Perft.class
+ *
+ * Headless move generation test. Counts the leaf nodes of the legal
+ * move tree to a fixed depth, which can be compared with known counts
+ * to prove the move generator correct, and reports nodes per second.
+ *
+ * Large depths can be counted in parallel on a ForkJoinPool, with an
+ * optional cache of subtree counts keyed by Position.getKey(), so
+ * transpositions are only counted once.
+ *
+ * Counts of the starting position of Board, and of the standard test
+ * positions (set up through Fen), are known: a run compares with them
+ * and exits with status 1 on a mismatch, so it guards the move
+ * generator and make/unmake against regressions. The check also walks
+ * every position of each tree, comparing the incremental Zobrist key
+ * and evaluation with ones computed from scratch, and the captures the
+ * quiescence search generates with those among the legal moves.
+ *
+ * Usage: java ver2.Perft [depth] [divide | parallel [split] [cache]]
+ *        java ver2.Perft check [depth]
+ * - depth    deepest level to count (default 5, 4 for check)
+ * - divide   also print the count under every root move
+ * - parallel count on all processors
+ * - split    number of plies split into parallel tasks (default 2)
+ * - cache    size of the subtree count cache in megabytes (default 0, none)
+ * - check    count every known position and walk its tree
+ */
+public class Perft {
+
+    /**
+     * Key mixed into the position key for each ply of depth,
+     * so counts of the same position at different depths differ.
+     */
+    private static final long DEPTH_KEY = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Known counts from the starting position of Board, by depth from 1.
+     */
+    private static final long[] START_COUNTS = {20, 400, 8902, 197561, 4884780};
+
+    /**
+     * Standard test positions: Kiwipete and positions 3 to 6 of the
+     * Chess Programming Wiki perft results.
+     */
+    private static final String[] KNOWN_FENS = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    /**
+     * Known counts of each standard test position, by depth from 1.
+     */
+    private static final long[][] KNOWN_COUNTS = {
+        {48, 2039, 97862, 4085603},
+        {14, 191, 2812, 43238, 674624},
+        {6, 264, 9467, 422333},
+        {44, 1486, 62379, 2103487},
+        {46, 2079, 89890, 3894594}
+    };
+
+    /**
+     * Counts the leaf nodes of the legal move tree.
+     * @param position
+     *              the position to count from, restored before returning.
+     * @param depth
+     *              number of moves to look ahead.
+     * @return number of leaf nodes.
+     */
+    public static long perft(Position position, int depth) {
+        if (depth == 0)
+            return 1;
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        if (depth == 1)
+            return count;
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1);
+            position.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes of the legal move tree, looking up and
+     * storing the counts of subtrees in a cache.
+     * @param position
+     *              the position to count from, restored before returning.
+     * @param depth
+     *              number of moves to look ahead.
+     * @param cache
+     *              subtree counts from newCache(), or null.
+     * @return number of leaf nodes.
+     */
+    public static long perft(Position position, int depth, long[] cache) {
+        if (cache == null || depth < 2)
+            return perft(position, depth);
+        long key = position.getKey() ^ DEPTH_KEY * depth;
+        int index = (int) (key & (cache.length / 2 - 1)) * 2;
+        long nodes = cache[index + 1];
+        if ((cache[index] ^ nodes) == key && nodes != 0)
+            return nodes;
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1, cache);
+            position.unmakeMove();
+        }
+        cache[index] = key ^ nodes;
+        cache[index + 1] = nodes;
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes of the legal move tree on all processors.
+     * @param position
+     *              the position to count from, left unchanged.
+     * @param depth
+     *              number of moves to look ahead.
+     * @param split
+     *              number of plies split into parallel tasks, 1 for the root moves only.
+     * @param cache
+     *              subtree counts from newCache(), or null.
+     * @return number of leaf nodes.
+     */
+    public static long parallel(Position position, int depth, int split, long[] cache) {
+        return ForkJoinPool.commonPool().invoke(new PerftTask(new Position(position), depth, split, cache));
+    }
+
+    /**
+     * Creates an empty cache of subtree counts.
+     * Each entry is the key XORed with the count, and the count, so an
+     * entry torn by two threads writing at once is seen as a miss.
+     * @param megabytes
+     *              size of the cache, rounded down to a power of two entries.
+     * @return cache, or null for 0 megabytes.
+     */
+    public static long[] newCache(int megabytes) {
+        if (megabytes <= 0)
+            return null;
+        return new long[(int) Math.min(Long.highestOneBit((long) megabytes << 20) / 8, 1 << 28)];
+    }
+
+    /**
+     * Prints the leaf node count under every root move, then the total.
+     * @param position
+     *              the position to count from.
+     * @param depth
+     *              number of moves to look ahead.
+     * @return number of leaf nodes.
+     */
+    public static long divide(Position position, int depth) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            long nodes = perft(position, depth - 1);
+            position.unmakeMove();
+            System.out.println(Move.toString(moves[i]) + ": " + nodes);
+            total += nodes;
+        }
+        System.out.println("moves: " + count + " nodes: " + total);
+        return total;
+    }
+
+    /**
+     * Counts the starting position of Board and every standard test
+     * position to the depths with known counts, and walks their trees.
+     * @param depth
+     *              deepest level to count.
+     * @return whether every count is right and every position consistent.
+     */
+    public static boolean check(int depth) {
+        boolean passed = check(Position.start(), START_COUNTS, depth);
+        for (int i = 0; i < KNOWN_FENS.length; i++)
+            passed &= check(Fen.parse(KNOWN_FENS[i]), KNOWN_COUNTS[i], depth);
+        System.out.println(passed ? "all checks passed" : "CHECK FAILED");
+        return passed;
+    }
+
+    /**
+     * Counts a position to the depths with known counts, then walks its tree.
+     * @param position
+     *              the position to count from, restored before returning.
+     * @param counts
+     *              known counts, by depth from 1.
+     * @param depth
+     *              deepest level to count.
+     * @return whether every count is right and every position consistent.
+     */
+    private static boolean check(Position position, long[] counts, int depth) {
+        boolean passed = true;
+        String fen = Fen.write(position);
+        for (int i = 1; i <= Math.min(depth, counts.length); i++) {
+            long nodes = perft(position, i);
+            if (nodes != counts[i - 1]) {
+                System.out.println(fen + " depth " + i + ": " + nodes + " nodes, expected " + counts[i - 1]);
+                passed = false;
+            }
+        }
+        String error = verify(position, Math.min(depth, 3));
+        if (error != null) {
+            System.out.println(fen + ": " + error);
+            passed = false;
+        }
+        if (passed)
+            System.out.println(fen + ": ok");
+        return passed;
+    }
+
+    /**
+     * Walks the legal move tree, checking in every position that what
+     * Position keeps up to date matches what is computed from scratch.
+     * @param position
+     *              the position to walk from, restored before returning.
+     * @param depth
+     *              number of moves to look ahead.
+     * @return the first inconsistency found, or null.
+     */
+    private static String verify(Position position, int depth) {
+        if (position.getKey() != Zobrist.compute(position))
+            return "key differs from Zobrist.compute() after " + moveList(position);
+        if (Evaluation.evaluate(position) != Evaluation.compute(position))
+            return "score differs from Evaluation.compute() after " + moveList(position);
+        if (depth == 0)
+            return null;
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        if (!sameCaptures(position, moves, count))
+            return "generateCaptures() differs from the legal captures after " + moveList(position);
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            String error = verify(position, depth - 1);
+            position.unmakeMove();
+            if (error != null)
+                return error;
+        }
+        return null;
+    }
+
+    /**
+     * Checks that generateCaptures() gives exactly the captures, en
+     * passant captures and promotions among the legal moves.
+     * @param position
+     *              the position.
+     * @param moves
+     *              legal moves of the position.
+     * @param count
+     *              number of legal moves.
+     * @return whether both sets of moves are the same.
+     */
+    private static boolean sameCaptures(Position position, int[] moves, int count) {
+        int[] captures = new int[MoveGenerator.MAX_MOVES];
+        int captureCount = MoveGenerator.generateCaptures(position, captures);
+        int expected = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (position.pieceAt(Move.to(move)) == Position.EMPTY && Move.flag(move) != Move.EN_PASSANT
+                    && Move.promotion(move) == 0)
+                continue;
+            expected++;
+            boolean found = false;
+            for (int j = 0; j < captureCount && !found; j++)
+                found = captures[j] == move;
+            if (!found)
+                return false;
+        }
+        return expected == captureCount;
+    }
+
+    /**
+     * Lists the moves made on a position, for error reports.
+     * @param position
+     *              the position.
+     * @return moves from the first, separated by spaces.
+     */
+    private static String moveList(Position position) {
+        Position game = new Position(position);
+        StringBuilder moves = new StringBuilder();
+        while (game.getPly() > 0) {
+            moves.insert(0, Move.toString(game.getLastMove()) + " ");
+            game.unmakeMove();
+        }
+        return moves.toString().trim();
+    }
+
+    /**
+     * Runs perft from the starting position of Board, comparing with the
+     * known counts, or checks every known position.
+     * @param args
+     *              command line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("check")) {
+            if (!check(args.length > 1 ? Integer.parseInt(args[1]) : 4))
+                System.exit(1);
+            return;
+        }
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        boolean divide = args.length > 1 && args[1].equals("divide");
+        boolean parallel = args.length > 1 && args[1].equals("parallel");
+        int split = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        long[] cache = newCache(args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        Position position = Position.start();
+        boolean passed = true;
+        for (int i = 1; i <= depth; i++) {
+            long start = System.nanoTime();
+            long nodes = parallel ? parallel(position, i, split, cache) : perft(position, i);
+            long time = System.nanoTime() - start;
+            System.out.printf("depth %d: %d nodes in %d ms (%d nodes/s)%n",
+                    i, nodes, time / 1000000, time == 0 ? 0 : nodes * 1000000000L / time);
+            if (i <= START_COUNTS.length && nodes != START_COUNTS[i - 1]) {
+                System.out.println("MISMATCH: expected " + START_COUNTS[i - 1]);
+                passed = false;
+            }
+        }
+        if (divide)
+            divide(position, depth);
+        if (!passed)
+            System.exit(1);
+    }
+
+}
@@ -0,0 +1,82 @@
+package ver2;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ *
+ * PerftTask.class
+ *
+ * Fork/join task counting the leaf nodes under one position for
+ * Perft.parallel(). Down to the split ply every move is forked into
+ * its own task on a copy of the position, so idle threads of the
+ * ForkJoinPool can steal them; below it the count is sequential.
+ */
+public class PerftTask extends RecursiveTask<Long> {
+
+    /**
+     * serialVersionUID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The position to count from, owned by this task.
+     */
+    private final Position position;
+
+    /**
+     * Number of moves to look ahead.
+     */
+    private final int depth;
+
+    /**
+     * Number of plies still to be split into tasks.
+     */
+    private final int split;
+
+    /**
+     * Subtree counts shared by all tasks, or null.
+     */
+    private final long[] cache;
+
+    /**
+     * Constructs an object of type PerftTask.
+     * @param position
+     *              the position to count from, owned by this task.
+     * @param depth
+     *              number of moves to look ahead.
+     * @param split
+     *              number of plies still to be split into tasks.
+     * @param cache
+     *              subtree counts from Perft.newCache(), or null.
+     */
+    public PerftTask(Position position, int depth, int split, long[] cache) {
+        this.position = position;
+        this.depth = depth;
+        this.split = split;
+        this.cache = cache;
+    }
+
+    @Override
+    /**
+     * Counts the leaf nodes, forking a task for every move above the split ply.
+     * @see java.util.concurrent.RecursiveTask#compute()
+     * @return number of leaf nodes.
+     */
+    protected Long compute() {
+        if (split <= 0 || depth <= 2)
+            return Perft.perft(position, depth, cache);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        PerftTask[] tasks = new PerftTask[count];
+        for (int i = 0; i < count; i++) {
+            Position child = new Position(position);
+            child.makeMove(moves[i]);
+            tasks[i] = new PerftTask(child, depth - 1, split - 1, cache);
+        }
+        invokeAll(tasks);
+        long nodes = 0;
+        for (PerftTask task : tasks)
+            nodes += task.join();
+        return nodes;
+    }
+
+}
@@ -0,0 +1,453 @@
+package ver2;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * PgnReader.class
+ *
+ * Streaming reader of Portable Game Notation (PGN) files, one game at
+ * a time. Bytes are read from a channel through one fixed buffer, so
+ * files of any size are read in bounded memory: the tags, moves and
+ * position of the current game are all that is kept.
+ *
+ * Every move is replayed on the rules engine (MoveGenerator), from the
+ * FEN tag, or from the standard chess starting position (Fen.STANDARD)
+ * as PGN assumes, not Board's own layout; the game comes out as a list
+ * of packed moves. Comments, variations and annotation glyphs are
+ * skipped.
+ * A game with a move that is not legal keeps the moves before it and
+ * reports the error, and reading goes on with the next game.
+ *
+ * Usage: while (reader.next()) { reader.getMoves() ... }
+ */
+public class PgnReader implements Closeable {
+
+    /**
+     * Bytes read from the channel at a time.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Longest token kept, longer ones are cut (tag values, move text).
+     */
+    private static final int MAX_TOKEN = 1024;
+
+    /**
+     * Channel the games are read from.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * Bytes read from the channel and not parsed yet.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Whether the channel has no bytes left.
+     */
+    private boolean eof;
+
+    /**
+     * Byte looked at but not taken yet, or -1.
+     */
+    private int peeked = -1;
+
+    /**
+     * Bytes of the token being read.
+     */
+    private final byte[] token = new byte[MAX_TOKEN];
+
+    /**
+     * Characters of the move being read, for San.
+     */
+    private final StringBuilder text = new StringBuilder(16);
+
+    /**
+     * Tags of the current game, in file order.
+     */
+    private final Map<String, String> tags = new LinkedHashMap<String, String>();
+
+    /**
+     * Position the current game is replayed on.
+     */
+    private final Position position = new Position();
+
+    /**
+     * Legal moves of the position, for San.
+     */
+    private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+
+    /**
+     * Moves of the current game.
+     */
+    private int[] moves = new int[256];
+
+    /**
+     * Number of moves of the current game.
+     */
+    private int moveCount;
+
+    /**
+     * Result of the current game: 1-0, 0-1, 1/2-1/2 or *.
+     */
+    private String result;
+
+    /**
+     * Why the current game could not be read to its end, or null.
+     */
+    private String error;
+
+    /**
+     * Number of games read.
+     */
+    private long games;
+
+    /**
+     * Constructs an object of type PgnReader.
+     * @param channel
+     *              channel to read the games from.
+     */
+    public PgnReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * Reads the next game.
+     * @return whether there was another game.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    public boolean next() throws IOException {
+        tags.clear();
+        moveCount = 0;
+        result = "*";
+        error = null;
+        Fen.parse(Fen.STANDARD, 0, Fen.STANDARD.length(), position);
+        boolean started = false;
+        boolean movetext = false;
+        while (true) {
+            int c = skipSpaces();
+            if (c < 0)
+                break;
+            if (c == '[') {
+                if (movetext)
+                    break;
+                take();
+                readTag();
+                started = true;
+            } else if (c == '{') {
+                skipPast('}');
+            } else if (c == ';' || c == '%') {
+                skipPast('\n');
+            } else if (c == '(') {
+                skipVariation();
+            } else {
+                started = true;
+                movetext = true;
+                int length = readToken();
+                if (isResult(length)) {
+                    result = new String(token, 0, length, StandardCharsets.US_ASCII);
+                    break;
+                }
+                readMove(length);
+            }
+        }
+        if (!started)
+            return false;
+        games++;
+        return true;
+    }
+
+    /**
+     * Reads a tag pair after its '[', up to its ']'.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private void readTag() throws IOException {
+        int c = skipSpaces();
+        int length = 0;
+        while (c >= 0 && c != ' ' && c != '"' && c != ']') {
+            length = append(length, take());
+            c = peek();
+        }
+        String name = new String(token, 0, length, StandardCharsets.US_ASCII);
+        c = skipSpaces();
+        length = 0;
+        if (c == '"') {
+            take();
+            while ((c = take()) >= 0 && c != '"') {
+                if (c == '\\')
+                    c = take();
+                length = append(length, c);
+            }
+        }
+        skipPast(']');
+        String value = new String(token, 0, length, StandardCharsets.UTF_8);
+        tags.put(name, value);
+        if (name.equals("FEN")) {
+            try {
+                Fen.parse(value, 0, value.length(), position);
+            } catch (IllegalArgumentException exc) {
+                error = exc.getMessage();
+            }
+        }
+    }
+
+    /**
+     * Replays a move token, skipping move numbers and annotation glyphs.
+     * @param length
+     *              length of the token.
+     */
+    private void readMove(int length) {
+        int start = 0;
+        while (start < length && token[start] >= '0' && token[start] <= '9')
+            start++;
+        if (start == length)
+            return;
+        if (token[start] == '.')
+            while (start < length && token[start] == '.')
+                start++;
+        else
+            start = 0;
+        if (start == length || token[0] == '$' || token[start] == '!' || token[start] == '?' || error != null)
+            return;
+        text.setLength(0);
+        for (int i = start; i < length; i++)
+            text.append((char) token[i]);
+        int move = San.parse(position, text, 0, text.length(), legal);
+        if (move == Move.NONE) {
+            error = "Illegal move " + text + " after " + moveCount + " moves";
+            return;
+        }
+        position.makeMove(move);
+        if (moveCount == moves.length)
+            moves = Arrays.copyOf(moves, moveCount * 2);
+        moves[moveCount++] = move;
+    }
+
+    /**
+     * Checks whether the token is a game result.
+     * @param length
+     *              length of the token.
+     * @return whether it ends the game.
+     */
+    private boolean isResult(int length) {
+        return length == 1 && token[0] == '*'
+                || length == 3 && token[0] + token[2] == '0' + '1' && token[1] == '-'
+                || length == 7 && token[0] == '1' && token[1] == '/' && token[3] == '-';
+    }
+
+    /**
+     * Reads a token up to a space or the next bracket, brace or parenthesis.
+     * @return length of the token.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private int readToken() throws IOException {
+        int length = 0;
+        int c = peek();
+        while (c > ' ' && c != '[' && c != '{' && c != '(' && c != ')' && c != ';') {
+            length = append(length, take());
+            c = peek();
+            if (length > 0 && token[length - 1] == '.' && c != '.')
+                break;
+        }
+        if (length == 0)
+            take();
+        return length;
+    }
+
+    /**
+     * Skips a variation, with the variations nested in it.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private void skipVariation() throws IOException {
+        int depth = 0;
+        int c;
+        while ((c = take()) >= 0) {
+            if (c == '(')
+                depth++;
+            else if (c == ')' && --depth == 0)
+                return;
+            else if (c == '{')
+                skipPast('}');
+        }
+    }
+
+    /**
+     * Adds a byte to the token, unless it is full.
+     * @param length
+     *              length of the token.
+     * @param c
+     *              the byte to add.
+     * @return new length of the token.
+     */
+    private int append(int length, int c) {
+        if (length < MAX_TOKEN && c >= 0)
+            token[length++] = (byte) c;
+        return length;
+    }
+
+    /**
+     * Skips bytes up to and including a given one.
+     * @param end
+     *              the byte to stop after.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private void skipPast(int end) throws IOException {
+        int c;
+        while ((c = take()) >= 0 && c != end)
+            ;
+    }
+
+    /**
+     * Skips white space.
+     * @return the next byte, not taken, or -1 at the end.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private int skipSpaces() throws IOException {
+        int c;
+        while ((c = peek()) >= 0 && c <= ' ')
+            take();
+        return c;
+    }
+
+    /**
+     * Looks at the next byte without taking it.
+     * @return the byte, or -1 at the end.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private int peek() throws IOException {
+        if (peeked < 0)
+            peeked = read();
+        return peeked;
+    }
+
+    /**
+     * Takes the next byte.
+     * @return the byte, or -1 at the end.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private int take() throws IOException {
+        int c = peek();
+        peeked = -1;
+        return c;
+    }
+
+    /**
+     * Reads the next byte from the buffer, refilling it when empty.
+     * @return the byte, or -1 at the end.
+     * @throws IOException
+     *              if the channel cannot be read.
+     */
+    private int read() throws IOException {
+        while (!buffer.hasRemaining()) {
+            if (eof)
+                return -1;
+            buffer.clear();
+            eof = channel.read(buffer) < 0;
+            buffer.flip();
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Return the moves for this PgnReader.
+     * @return packed moves of the current game
+     */
+    public int[] getMoves() {
+        return Arrays.copyOf(moves, moveCount);
+    }
+
+    /**
+     * Return the moveCount for this PgnReader.
+     * @return number of moves of the current game
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Gets a move of the current game without copying the move list.
+     * @param index
+     *              index of the move, 0 for the first.
+     * @return packed move
+     */
+    public int getMove(int index) {
+        return moves[index];
+    }
+
+    /**
+     * Return the position for this PgnReader.
+     * @return position at the end of the current game, with its moves made on it
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets a tag of the current game.
+     * @param name
+     *              name of the tag, such as White.
+     * @return value of the tag, or null if the game has none.
+     */
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    /**
+     * Return the tags for this PgnReader.
+     * @return tags of the current game, in file order
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Return the result for this PgnReader.
+     * @return result of the current game
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Return the error for this PgnReader.
+     * @return why the current game could not be read to its end, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Return the games for this PgnReader.
+     * @return number of games read
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Closes the channel.
+     * @throws IOException
+     *              if the channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,147 @@
+package ver2;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * PgnWriter.class
+ *
+ * Writes games in Portable Game Notation (PGN), one after another, in
+ * the layout PgnReader reads: the seven standard tags (and FEN with
+ * SetUp for games that do not start from the standard chess starting
+ * position, such as every game of Board), then the moves in SAN,
+ * wrapped under 80 characters, and the result.
+ */
+public class PgnWriter implements Closeable {
+
+    /**
+     * The seven tags every PGN game has, in their order.
+     */
+    private static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+
+    /**
+     * Longest line of move text.
+     */
+    private static final int LINE_LENGTH = 79;
+
+    /**
+     * Writer the games are written to.
+     */
+    private final Writer out;
+
+    /**
+     * Legal moves of the position, for San.
+     */
+    private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+
+    /**
+     * Text of the game being written.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Constructs an object of type PgnWriter.
+     * @param out
+     *              writer to write the games to.
+     */
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a game.
+     * @param tags
+     *              tags of the game, missing roster tags are written as "?".
+     * @param position
+     *              position at the end of the game, with its moves made on it.
+     * @throws IOException
+     *              if the game cannot be written.
+     */
+    public void write(Map<String, String> tags, Position position) throws IOException {
+        Position game = new Position(position);
+        int[] moves = new int[game.getPly()];
+        for (int i = moves.length - 1; i >= 0; i--) {
+            moves[i] = game.getLastMove();
+            game.unmakeMove();
+        }
+        String fen = Fen.write(game);
+        Map<String, String> all = new LinkedHashMap<String, String>();
+        for (String name : ROSTER)
+            all.put(name, tags.containsKey(name) ? tags.get(name) : "?");
+        if (!tags.containsKey("Result"))
+            all.put("Result", result(position));
+        if (!fen.equals(Fen.STANDARD)) {
+            all.put("SetUp", "1");
+            all.put("FEN", fen);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet())
+            if (!all.containsKey(tag.getKey()))
+                all.put(tag.getKey(), tag.getValue());
+
+        text.setLength(0);
+        for (Map.Entry<String, String> tag : all.entrySet()) {
+            text.append('[').append(tag.getKey()).append(" \"");
+            String value = tag.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\')
+                    text.append('\\');
+                text.append(c);
+            }
+            text.append("\"]\n");
+        }
+        text.append('\n');
+        int line = text.length();
+        for (int i = 0; i < moves.length; i++) {
+            int start = text.length();
+            if (game.getSide() == Position.BLUE || i == 0)
+                text.append(game.getFullmoveNumber()).append(game.getSide() == Position.BLUE ? ". " : "... ");
+            San.write(game, moves[i], legal, text);
+            game.makeMove(moves[i]);
+            if (text.length() - line > LINE_LENGTH) {
+                text.setCharAt(start - 1, '\n');
+                line = start;
+            }
+            text.append(' ');
+        }
+        text.append(all.get("Result")).append("\n\n");
+        out.write(text.toString());
+    }
+
+    /**
+     * Gets the result of a game from its last position.
+     * @param position
+     *              position at the end of the game.
+     * @return 1-0 or 0-1 after a checkmate, 1/2-1/2 after a stalemate, * otherwise.
+     */
+    public static String result(Position position) {
+        if (!MoveGenerator.hasNoMove(position))
+            return "*";
+        if (position.checkers() == 0)
+            return "1/2-1/2";
+        return position.getSide() == Position.RED ? "1-0" : "0-1";
+    }
+
+    /**
+     * Flushes the writer.
+     * @throws IOException
+     *              if the writer cannot be flushed.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the writer.
+     * @throws IOException
+     *              if the writer cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
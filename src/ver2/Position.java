@@ -0,0 +1,742 @@
+package ver2;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ *
+ * Position.class
+ *
+ * Headless chess position, independent of javafx.
+ *
+ * Keeps one 64-bit occupancy bitboard per piece type and color,
+ * a mailbox for quick piece lookup, side to move, castling rights
+ * and en passant square. Board and Square only render from it.
+ *
+ * Squares are numbered col + row * 8, using the same col and row
+ * as Square, so square 0 is board[0][0] and square 63 is board[7][7].
+ *
+ * A Zobrist key of the position is updated along with every change,
+ * so the position can be identified in O(1). So are the material and
+ * piece-square totals of Evaluation, so evaluating it is O(1) too.
+ *
+ * Moves are made and unmade in place. Every makeMove pushes an undo
+ * record on primitive stacks, so trying a move never creates objects
+ * and never touches rendering.
+ */
+public class Position implements Serializable {
+
+    /**
+     * serialVersionUID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Piece types.
+     */
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    /**
+     * Team colors. Blue moves first.
+     */
+    public static final int BLUE = 0;
+    public static final int RED = 1;
+
+    /**
+     * Mailbox value of an empty square, also used for "no square".
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * Castling rights, named after the file of the rook.
+     */
+    public static final int BLUE_CASTLING_H = 1;
+    public static final int BLUE_CASTLING_A = 2;
+    public static final int RED_CASTLING_H = 4;
+    public static final int RED_CASTLING_A = 8;
+
+    /**
+     * Castling rights kept when a piece moves from or to each square.
+     */
+    private static final int[] CASTLING_MASK = new int[64];
+
+    static {
+        Arrays.fill(CASTLING_MASK, BLUE_CASTLING_H | BLUE_CASTLING_A | RED_CASTLING_H | RED_CASTLING_A);
+        CASTLING_MASK[square(0, 0)] &= ~RED_CASTLING_A;
+        CASTLING_MASK[square(7, 0)] &= ~RED_CASTLING_H;
+        CASTLING_MASK[square(0, 7)] &= ~BLUE_CASTLING_A;
+        CASTLING_MASK[square(7, 7)] &= ~BLUE_CASTLING_H;
+    }
+
+    /**
+     * Occupancy of every piece, indexed by piece code (color * 6 + type).
+     */
+    private final long[] pieces = new long[12];
+
+    /**
+     * Occupancy of each team, indexed by color.
+     */
+    private final long[] colors = new long[2];
+
+    /**
+     * Piece code on each square, or EMPTY.
+     */
+    private final int[] mailbox = new int[64];
+
+    /**
+     * Color of the team to move.
+     */
+    private int side;
+
+    /**
+     * Remaining castling rights.
+     */
+    private int castling;
+
+    /**
+     * Square a pawn could En Passant move to, or EMPTY.
+     */
+    private int enPassant = EMPTY;
+
+    /**
+     * Moves since the last capture or pawn move.
+     */
+    private int halfmoveClock;
+
+    /**
+     * Number of the current full move, starting at 1.
+     */
+    private int fullmoveNumber = 1;
+
+    /**
+     * Zobrist key of this position.
+     */
+    private long key;
+
+    /**
+     * Middlegame and endgame totals of Evaluation, from blue team's view.
+     */
+    private int middlegame;
+    private int endgame;
+
+    /**
+     * Game phase of the pieces on the board, for Evaluation.
+     */
+    private int phase;
+
+    /**
+     * Number of moves made and not unmade yet.
+     */
+    private int ply;
+
+    /**
+     * Undo records of made moves, indexed by ply.
+     */
+    private int[] undoMove = new int[64];
+    private int[] undoCaptured = new int[64];
+    private int[] undoCastling = new int[64];
+    private int[] undoEnPassant = new int[64];
+    private int[] undoHalfmove = new int[64];
+    private long[] undoKey = new long[64];
+
+    /**
+     * Constructs an object of type Position.(Empty board, blue to move)
+     */
+    public Position() {
+        Arrays.fill(mailbox, EMPTY);
+    }
+
+    /**
+     * Constructs an object of type Position as a copy of another one,
+     * including its made moves, so the copy can be searched on another
+     * thread and still finds repetitions of the game.
+     * @param other
+     *              the position to copy.
+     */
+    public Position(Position other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.mailbox, 0, mailbox, 0, mailbox.length);
+        side = other.side;
+        castling = other.castling;
+        enPassant = other.enPassant;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        key = other.key;
+        middlegame = other.middlegame;
+        endgame = other.endgame;
+        phase = other.phase;
+        ply = other.ply;
+        undoMove = other.undoMove.clone();
+        undoCaptured = other.undoCaptured.clone();
+        undoCastling = other.undoCastling.clone();
+        undoEnPassant = other.undoEnPassant.clone();
+        undoHalfmove = other.undoHalfmove.clone();
+        undoKey = other.undoKey.clone();
+    }
+
+    /**
+     * Empties the board and forgets the made moves, so this Position can
+     * be set up again without allocating a new one.
+     */
+    public void clear() {
+        for (long occupied = occupied(); occupied != 0; occupied &= occupied - 1)
+            remove(Long.numberOfTrailingZeros(occupied));
+        setSide(BLUE);
+        setCastling(0);
+        setEnPassant(EMPTY);
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        ply = 0;
+    }
+
+    /**
+     * Creates the starting position used by Board.
+     * @return the starting position.
+     */
+    public static Position start() {
+        Position position = new Position();
+        int[] red = {ROOK, KNIGHT, BISHOP, KING, QUEEN, BISHOP, KNIGHT, ROOK};
+        int[] blue = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK};
+        for (int col = 0; col < 8; col++) {
+            position.put(piece(RED, red[col]), square(col, 0));
+            position.put(piece(RED, PAWN), square(col, 1));
+            position.put(piece(BLUE, PAWN), square(col, 6));
+            position.put(piece(BLUE, blue[col]), square(col, 7));
+        }
+        position.setCastling(BLUE_CASTLING_H | BLUE_CASTLING_A | RED_CASTLING_H | RED_CASTLING_A);
+        position.setSide(BLUE);
+        return position;
+    }
+
+    /* Move Functions */
+
+    /**
+     * Makes a move and pushes its undo record.
+     * The move must be legal or at least pseudo legal in this position.
+     * @param move
+     *              packed move to make.
+     */
+    public void makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        int us = side;
+        if (ply == undoMove.length)
+            growUndo();
+        undoMove[ply] = move;
+        undoCastling[ply] = castling;
+        undoEnPassant[ply] = enPassant;
+        undoHalfmove[ply] = halfmoveClock;
+        undoKey[ply] = key;
+
+        int captured = remove(flag == Move.EN_PASSANT ? enPassantCapture(to, us) : to);
+        int piece = remove(from);
+        put(Move.promotion(move) != 0 ? piece(us, Move.promotion(move)) : piece, to);
+        if (flag == Move.CASTLING) {
+            int rook = castlingRook(from, to);
+            put(remove(rook), (from + to) / 2);
+        }
+        undoCaptured[ply] = captured;
+
+        key ^= Zobrist.castling(castling) ^ Zobrist.enPassant(enPassant) ^ Zobrist.side(RED);
+        castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        if (type(piece) == KING)
+            castling &= us == RED ? ~(RED_CASTLING_H | RED_CASTLING_A) : ~(BLUE_CASTLING_H | BLUE_CASTLING_A);
+        enPassant = type(piece) == PAWN && Math.abs(to - from) == 16 ? (from + to) / 2 : EMPTY;
+        key ^= Zobrist.castling(castling) ^ Zobrist.enPassant(enPassant);
+        halfmoveClock = type(piece) == PAWN || captured != EMPTY ? 0 : halfmoveClock + 1;
+        if (us == RED)
+            fullmoveNumber++;
+        side = us ^ 1;
+        ply++;
+    }
+
+    /**
+     * Unmakes the last made move from its undo record.
+     */
+    public void unmakeMove() {
+        ply--;
+        int move = undoMove[ply];
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        side ^= 1;
+        int us = side;
+
+        if (flag == Move.CASTLING)
+            put(remove((from + to) / 2), castlingRook(from, to));
+        int piece = remove(to);
+        put(Move.promotion(move) != 0 ? piece(us, PAWN) : piece, from);
+        int captured = undoCaptured[ply];
+        if (captured != EMPTY)
+            put(captured, flag == Move.EN_PASSANT ? enPassantCapture(to, us) : to);
+
+        castling = undoCastling[ply];
+        enPassant = undoEnPassant[ply];
+        halfmoveClock = undoHalfmove[ply];
+        key = undoKey[ply];
+        if (us == RED)
+            fullmoveNumber--;
+    }
+
+    /**
+     * Return the last made move.
+     * @return packed move, or Move.NONE if no move has been made.
+     */
+    public int getLastMove() {
+        return ply == 0 ? Move.NONE : undoMove[ply - 1];
+    }
+
+    /**
+     * Checks whether this position has already been reached since the
+     * last capture or pawn move, among the moves made on this Position.
+     * @return whether the position is repeated.
+     */
+    public boolean isRepetition() {
+        for (int i = ply - 4; i >= 0 && i >= ply - halfmoveClock; i -= 2)
+            if (undoKey[i] == key)
+                return true;
+        return false;
+    }
+
+    /**
+     * Searches for all pieces of both teams attacking a square.
+     * @param square
+     *              the square to be checked.
+     * @param occupied
+     *              occupancy to look through, so sliding attacks
+     *              behind a moved piece can be found.
+     * @return occupancy of the attacking pieces.
+     */
+    public long attackersTo(int square, long occupied) {
+        long bishops = pieces[BISHOP] | pieces[6 + BISHOP] | pieces[QUEEN] | pieces[6 + QUEEN];
+        long rooks = pieces[ROOK] | pieces[6 + ROOK] | pieces[QUEEN] | pieces[6 + QUEEN];
+        return (Attacks.pawn(RED, square) & pieces[PAWN])
+                | (Attacks.pawn(BLUE, square) & pieces[6 + PAWN])
+                | (Attacks.knight(square) & (pieces[KNIGHT] | pieces[6 + KNIGHT]))
+                | (Attacks.king(square) & (pieces[KING] | pieces[6 + KING]))
+                | (Attacks.bishop(square, occupied) & bishops)
+                | (Attacks.rook(square, occupied) & rooks);
+    }
+
+    /**
+     * Searches for the enemy pieces checking the king of the team to move.
+     * @return occupancy of the checking pieces.
+     */
+    public long checkers() {
+        int king = king(side);
+        return king == EMPTY ? 0 : attackersTo(king, occupied()) & colors[side ^ 1];
+    }
+
+    /**
+     * Searches for the pieces of given team that are pinned to their
+     * king: moving them off the line would expose the king to an enemy
+     * rook, bishop or queen.
+     * @param color
+     *              color of given team.
+     * @return occupancy of the pinned pieces.
+     */
+    public long pinned(int color) {
+        int king = king(color);
+        if (king == EMPTY)
+            return 0;
+        int them = color ^ 1;
+        long queens = pieces(them, QUEEN);
+        long snipers = (Attacks.rook(king, 0) & (pieces(them, ROOK) | queens))
+                | (Attacks.bishop(king, 0) & (pieces(them, BISHOP) | queens));
+        long occupied = occupied();
+        long pinned = 0;
+        for (; snipers != 0; snipers &= snipers - 1) {
+            long blockers = Attacks.between(king, Long.numberOfTrailingZeros(snipers)) & occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0)
+                pinned |= blockers & colors[color];
+        }
+        return pinned;
+    }
+
+    /**
+     * Checks whether a square is attacked by given team.
+     * @param square
+     *              the square to be checked.
+     * @param color
+     *              color of the attacking team.
+     * @return whether any piece of that team attacks this square.
+     */
+    public boolean isAttacked(int square, int color) {
+        return (attackersTo(square, occupied()) & colors[color]) != 0;
+    }
+
+    /**
+     * Checks whether the king of given team is being checked.
+     * @param color
+     *              color of given team.
+     * @return whether its king is attacked. (False if it has no king)
+     */
+    public boolean isChecked(int color) {
+        int king = king(color);
+        return king != EMPTY && isAttacked(king, color ^ 1);
+    }
+
+    /**
+     * Gets the square of the rook taking part in a castling move.
+     * @param from
+     *              king's from square.
+     * @param to
+     *              king's to square.
+     * @return the square of the rook.
+     */
+    public static int castlingRook(int from, int to) {
+        return square(to > from ? 7 : 0, row(from));
+    }
+
+    /**
+     * Gets the castling right of castling with the rook in a corner.
+     * @param color
+     *              color of the castling team.
+     * @param rook
+     *              square of the rook.
+     * @return castling right of that rook.
+     */
+    public static int castlingRight(int color, int rook) {
+        if (col(rook) == 0)
+            return color == RED ? RED_CASTLING_A : BLUE_CASTLING_A;
+        return color == RED ? RED_CASTLING_H : BLUE_CASTLING_H;
+    }
+
+    /**
+     * Gets the square of the pawn captured by an En Passant move.
+     * @param to
+     *              the square the capturing pawn moves to.
+     * @param color
+     *              color of the capturing pawn.
+     * @return the square of the captured pawn.
+     */
+    private static int enPassantCapture(int to, int color) {
+        return color == RED ? to - 8 : to + 8;
+    }
+
+    /**
+     * Doubles the size of the undo record stacks.
+     */
+    private void growUndo() {
+        int size = undoMove.length * 2;
+        undoMove = Arrays.copyOf(undoMove, size);
+        undoCaptured = Arrays.copyOf(undoCaptured, size);
+        undoCastling = Arrays.copyOf(undoCastling, size);
+        undoEnPassant = Arrays.copyOf(undoEnPassant, size);
+        undoHalfmove = Arrays.copyOf(undoHalfmove, size);
+        undoKey = Arrays.copyOf(undoKey, size);
+    }
+
+    /* Board Functions */
+
+    /**
+     * Puts a piece on an empty square.
+     * @param piece
+     *              piece code to put.
+     * @param square
+     *              the square to put it on.
+     */
+    public void put(int piece, int square) {
+        long bit = 1L << square;
+        pieces[piece] |= bit;
+        colors[color(piece)] |= bit;
+        mailbox[square] = piece;
+        key ^= Zobrist.piece(piece, square);
+        middlegame += Evaluation.middlegame(piece, square);
+        endgame += Evaluation.endgame(piece, square);
+        phase += Evaluation.phase(piece);
+    }
+
+    /**
+     * Takes the piece off a square.
+     * @param square
+     *              the square to clear.
+     * @return the piece code removed, or EMPTY.
+     */
+    public int remove(int square) {
+        int piece = mailbox[square];
+        if (piece != EMPTY) {
+            long bit = ~(1L << square);
+            pieces[piece] &= bit;
+            colors[color(piece)] &= bit;
+            mailbox[square] = EMPTY;
+            key ^= Zobrist.piece(piece, square);
+            middlegame -= Evaluation.middlegame(piece, square);
+            endgame -= Evaluation.endgame(piece, square);
+            phase -= Evaluation.phase(piece);
+        }
+        return piece;
+    }
+
+    /**
+     * Return the piece code on a square.
+     * @param square
+     *              the square to look at.
+     * @return piece code, or EMPTY.
+     */
+    public int pieceAt(int square) {
+        return mailbox[square];
+    }
+
+    /**
+     * Return the occupancy of one kind of piece.
+     * @param color
+     *              color of the pieces.
+     * @param type
+     *              type of the pieces.
+     * @return occupancy bitboard.
+     */
+    public long pieces(int color, int type) {
+        return pieces[color * 6 + type];
+    }
+
+    /**
+     * Return the occupancy of one team.
+     * @param color
+     *              color of the team.
+     * @return occupancy bitboard.
+     */
+    public long pieces(int color) {
+        return colors[color];
+    }
+
+    /**
+     * Return the occupancy of both teams.
+     * @return occupancy bitboard.
+     */
+    public long occupied() {
+        return colors[BLUE] | colors[RED];
+    }
+
+    /**
+     * Gets the square of the king for given team.
+     * @param color
+     *              color of given team.
+     * @return the square of the king, or EMPTY if there is none.
+     */
+    public int king(int color) {
+        long king = pieces[color * 6 + KING];
+        return king == 0 ? EMPTY : Long.numberOfTrailingZeros(king);
+    }
+
+    /**
+     * Return the side for this Position.
+     * @return color of the team to move.
+     */
+    public int getSide() {
+        return side;
+    }
+
+    /**
+     * Sets the side for this Position.
+     * @param side the side to set
+     */
+    public void setSide(int side) {
+        key ^= Zobrist.side(this.side) ^ Zobrist.side(side);
+        this.side = side;
+    }
+
+    /**
+     * Return whether the current turn is red team's turn.
+     * @return isRedTurn
+     */
+    public boolean isRedTurn() {
+        return side == RED;
+    }
+
+    /**
+     * Return the castling for this Position.
+     * @return castling rights
+     */
+    public int getCastling() {
+        return castling;
+    }
+
+    /**
+     * Sets the castling for this Position.
+     * @param castling the castling rights to set
+     */
+    public void setCastling(int castling) {
+        key ^= Zobrist.castling(this.castling) ^ Zobrist.castling(castling);
+        this.castling = castling;
+    }
+
+    /**
+     * Return the enPassant for this Position.
+     * @return En Passant square, or EMPTY.
+     */
+    public int getEnPassant() {
+        return enPassant;
+    }
+
+    /**
+     * Sets the enPassant for this Position.
+     * @param enPassant the En Passant square to set, or EMPTY.
+     */
+    public void setEnPassant(int enPassant) {
+        key ^= Zobrist.enPassant(this.enPassant) ^ Zobrist.enPassant(enPassant);
+        this.enPassant = enPassant;
+    }
+
+    /**
+     * Return the Zobrist key for this Position.
+     * @return key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Return the middlegame score for this Position.
+     * @return middlegame total of Evaluation, from blue team's view
+     */
+    public int getMiddlegame() {
+        return middlegame;
+    }
+
+    /**
+     * Return the endgame score for this Position.
+     * @return endgame total of Evaluation, from blue team's view
+     */
+    public int getEndgame() {
+        return endgame;
+    }
+
+    /**
+     * Return the phase for this Position.
+     * @return game phase of the pieces on the board
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Return the halfmoveClock for this Position.
+     * @return moves since the last capture or pawn move
+     */
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    /**
+     * Sets the halfmoveClock for this Position.
+     * @param halfmoveClock the halfmoveClock to set
+     */
+    public void setHalfmoveClock(int halfmoveClock) {
+        this.halfmoveClock = halfmoveClock;
+    }
+
+    /**
+     * Return the fullmoveNumber for this Position.
+     * @return number of the current full move
+     */
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    /**
+     * Sets the fullmoveNumber for this Position.
+     * @param fullmoveNumber the fullmoveNumber to set
+     */
+    public void setFullmoveNumber(int fullmoveNumber) {
+        this.fullmoveNumber = fullmoveNumber;
+    }
+
+    /**
+     * Return the ply for this Position.
+     * @return number of moves made and not unmade yet
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /* Helper Functions */
+
+    /**
+     * Gets the piece code for given color and type.
+     * @param color
+     *              color of the piece.
+     * @param type
+     *              type of the piece.
+     * @return piece code.
+     */
+    public static int piece(int color, int type) {
+        return color * 6 + type;
+    }
+
+    /**
+     * Gets the color of a piece code.
+     * @param piece
+     *              piece code.
+     * @return color of the piece.
+     */
+    public static int color(int piece) {
+        return piece < 6 ? BLUE : RED;
+    }
+
+    /**
+     * Gets the type of a piece code.
+     * @param piece
+     *              piece code.
+     * @return type of the piece.
+     */
+    public static int type(int piece) {
+        return piece < 6 ? piece : piece - 6;
+    }
+
+    /**
+     * Gets the square number of given column and row.
+     * @param col
+     *              column on chess board.
+     * @param row
+     *              row on chess board.
+     * @return square number.
+     */
+    public static int square(int col, int row) {
+        return col + row * 8;
+    }
+
+    /**
+     * Gets the column of a square number.
+     * @param square
+     *              square number.
+     * @return column on chess board.
+     */
+    public static int col(int square) {
+        return square & 7;
+    }
+
+    /**
+     * Gets the row of a square number.
+     * @param square
+     *              square number.
+     * @return row on chess board.
+     */
+    public static int row(int square) {
+        return square >>> 3;
+    }
+
+    /**
+     * Return toString description of this position(Testing purpose).
+     * @see java.lang.Object#toString()
+     * @return toString description
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int piece = mailbox[square(col, row)];
+                text.append(piece == EMPTY ? '.' : "PNBRQKpnbrqk".charAt(piece));
+            }
+            text.append('\n');
+        }
+        return text.append(side == RED ? "red" : "blue").append(" to move").toString();
+    }
+}
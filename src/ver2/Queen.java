@@ -32,4 +32,13 @@ public class Queen extends Chess {
         setImageAddress(isRed?"Queen-l.png":"Queen-d.png");
     }
 
+    /**
+     * Return the type of this Queen.
+     * @return Position.QUEEN
+     */
+    @Override
+    public int getType() {
+        return Position.QUEEN;
+    }
+
 }
@@ -53,5 +53,13 @@ public class Rook extends Chess {
         this.firstRound = firstRound;
     }
 
+    /**
+     * Return the type of this Rook.
+     * @return Position.ROOK
+     */
+    @Override
+    public int getType() {
+        return Position.ROOK;
+    }
 
 }
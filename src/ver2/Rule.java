@@ -1,5 +1,11 @@
 package ver2;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javafx.application.Platform;
 import javafx.scene.control.Button;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
@@ -17,6 +23,16 @@ import javafx.scene.text.Text;
  * to perform. When special movement is triggered, Rule can
  * directly control the chess board's performance.
  * 
+ * Every chess board has its own Rule, which keeps the state of
+ * its game in a GameContext, so several games can run at once.
+ * 
+ * The computer opponent searches on a background thread, never on
+ * the javafx thread, and hands its move back with Platform.runLater.
+ * While the player thinks, it ponders: it searches the position after
+ * the reply it expects, filling its transposition table, until the
+ * player moves. Positions found in its opening book are answered with
+ * a book move at once, without searching.
+ * 
  * Implemented feature:
  * - Basic movement pattern
  * - Low level rules restricted movement
@@ -51,95 +67,102 @@ public class Rule {
     };
 
     /**
-     * Indicates whether the current turn is red team's turn.
+     * Time the computer opponent thinks about each move, in milliseconds.
      */
-    private static boolean isRedTurn;
+    public static final int THINK_TIME = 1000;
+
+    /**
+     * Longest time the computer opponent ponders, in milliseconds.
+     */
+    public static final int PONDER_TIME = 60000;
+
+    /**
+     * The game board this Rule rely on.
+     */
+    private final Square[][] board;
     
     /**
-     * Indicates whether red team can perform special move castling.
+     * State of the game, the game board only renders its position.
      */
-    private static boolean redCastling;
+    private final GameContext context;
     
     /**
-     * Indicates whether blue team can perform special move castling.
+     * Computer opponent, or null when two players play.
      */
-    private static boolean blueCastling;
+    private Search computer;
     
     /**
-     * The game board this Rule rely on.
+     * Indicates whether the computer opponent plays the red team.
      */
-    private static Square[][] board;
+    private boolean isComputerRed;
     
-    /* Core Function */
-
     /**
-     * Searches for all enemy team chess pieces that is checking 
-     * (allowed to move to) this square.
-     * Note: Only can be used on Squares that contains chess piece.
-     * @param square
-     *              the square to be checked.
-     * @return all square of enemy chess pieces that is checking
-     *         this square.
+     * Opening book of the computer opponent, or null.
      */
-    private static ArrayList<Square> getChecker(Square square) {
-        ArrayList<Square> checker = new ArrayList<Square>();
-        for (Square[] col : board)
-            for (Square row : col)
-                if (row.getChess() != null && square.getChess() != null
-                && row.getChess().isRed() != square.getChess().isRed()) {
-                    ArrayList<Square> movelist = getBasicMove(row);
-                    for (Square toMove : movelist)
-                        if (toMove.equals(square))
-                            checker.add(row);
-                }
-        return checker;
-    }
+    private OpeningBook book;
     
     /**
-     * Searches for all enemy team chess pieces that is checking 
-     * (allowed to move to) this square.
-     * Note: Can be use used on empty square but must provide team color.
-     * @param square
-     *              the square to be checked.
-     * @param isRed
-     *              which team this square would belong to
-     * @return all square of enemy chess pieces that is checking
-     *         this square.
+     * Random generator picking the computer opponent's book moves.
      */
-    private static ArrayList<Square> getChecker(Square square, boolean isRed) {
-        ArrayList<Square> checker = new ArrayList<Square>();
-        for (Square[] col : board)
-            for (Square row : col)
-                if (row.getChess() != null
-                && row.getChess().isRed() != isRed) {
-                    ArrayList<Square> movelist = getBasicMove(row);
-                    for (Square toMove : movelist)
-                        if (toMove.equals(square))
-                            checker.add(row);
-                }
-        return checker;
-    }
+    private final Random random = new Random();
     
-    /* Public Functions */
+    /**
+     * Background thread the computer opponent searches on.
+     */
+    private ExecutorService searcher;
+    
+    /**
+     * The computer opponent's search running while the player thinks, or null.
+     */
+    private Future<?> pondering;
     
     /**
-     * Sets the chess board this Rule rely on.
+     * Journal every move is appended to, or null.
+     */
+    private MoveJournal journal;
+    
+    /**
+     * Whether this game was closed, so late computer moves are dropped.
+     */
+    private boolean closed;
+    
+    /**
+     * Constructs an object of type Rule for a chess board, and builds
+     * the game position from the chess pieces on it.
      * @param board
      *              the chess board this Rule rely on.
+     * @param isRedTurn
+     *              whether the current turn is red team's turn.
      */
-    public static void setBoardRule(Square[][] board, boolean isRedTurn) {
-        Rule.board = board;
-        Rule.isRedTurn = isRedTurn;
+    public Rule(Square[][] board, boolean isRedTurn) {
+        this.board = board;
+        this.context = new GameContext(syncPosition(isRedTurn));
     }
 
+    /**
+     * Constructs an object of type Rule for a chess board and a game
+     * position, then renders the position on the board.
+     * @param board
+     *              the chess board this Rule rely on.
+     * @param position
+     *              the game position this Rule rely on.
+     */
+    public Rule(Square[][] board, Position position) {
+        this.board = board;
+        this.context = new GameContext(position);
+        render();
+    }
+    
+    /* Public Functions */
+
     /**
      * Restricts selecting square by game turn.
      * @param square
      *              the square to be selected.
      * @return whether the current turn is this square's team's turn
      */
-    public static boolean canIselect(Square square) {
-        return square.getChess() != null && square.getChess().isRed() == isRedTurn;
+    public boolean canIselect(Square square) {
+        return square.getChess() != null && square.getChess().isRed() == isRedTurn();
     }
     
     /**
@@ -148,33 +171,89 @@ public class Rule {
      * @param selecting
      *                  the square contains chess to be moved.
      */
-    public static void beforeMove(Square selecting) {
-        Rule.setEnable(selecting);
-        Rule.enableAll(getCheckFilteredMove(selecting));   //<- polymorphic call point 2, go to(Rule line 327)
+    public void beforeMove(Square selecting) {
+        setEnable(selecting);
+        enableAll(getCheckFilteredMove(selecting));
     }
 
     /**
-     * Does the aftermath after movement is performed by setting
-     * moved chess's first round off and change game turn.
-     * Then calls pawnPromotion function to take care of special case.
-     * Finally checks whether one of the team has been checkmated
-     * if yes, calls set winner function.
+     * Does the aftermath after movement is performed.
+     * If a pawn has just been promoted, lets player choose its piece first.
+     * Otherwise checks whether one of the team has been checkmated
+     * if yes, calls set winner function, if no, lets the computer
+     * opponent move.
      * @param selecting
      *                  the square now contains the chess just moved.
      */
-    public static void afterMove(Square selecting) {
-        if(selecting.getChess() != null)
-            setFirstRoundOff(selecting);
-        for (Square[] col : board)
-            for (Square row : col)
-                if(row.getChess() != null 
-                        && row.getChess() instanceof Pawn
-                        && row != selecting)
-                            ((Pawn)row.getChess()).setCoundBeEnPassant(false);
-        Rule.setTurn();
-        pawnPromotion(selecting);
-        if(isCheckmate())
-            win(!isRedTurn);
+    public void afterMove(Square selecting) {
+        if(Move.promotion(getPosition().getLastMove()) != 0)
+            pawnPromotion(selecting);
+        else if(isCheckmate())
+            win(!isRedTurn());
+        else
+            computerMove();
+    }
+
+    /**
+     * Lets a computer opponent play one of the teams.
+     * If it is already that team's turn, the computer moves at once.
+     * @param computer
+     *              search to choose the computer's moves.
+     * @param isRed
+     *              whether the computer plays the red team.
+     */
+    public void setComputer(Search computer, boolean isRed) {
+        this.computer = computer;
+        this.isComputerRed = isRed;
+        this.searcher = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "computer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        computerMove();
+    }
+
+    /**
+     * Sets the book the computer opponent plays its openings from.
+     * @param book
+     *              opening book, or null for none.
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Sets the journal every move of this game is appended to.
+     * @param journal
+     *              move journal, or null for none.
+     */
+    public void setJournal(MoveJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Cancels the computer opponent's pondering, once the player moves.
+     * The search stops within a few thousand nodes, before the
+     * computer's next search starts on the same thread.
+     */
+    public void stopPondering() {
+        if(pondering != null) {
+            pondering.cancel(true);
+            pondering = null;
+        }
+    }
+
+    /**
+     * Stops this game's computer thread for good, when this game is
+     * closed, and lets go of the journal, which the next game starts
+     * over. The Search itself is shared with the next games and kept.
+     */
+    public void shutdown() {
+        closed = true;
+        journal = null;
+        stopPondering();
+        if(computer != null)
+            searcher.shutdownNow();
     }
 
     /**
@@ -183,422 +262,202 @@ public class Rule {
      *              square to be checked.
      * @return whether the passed square is enabled.
      */
-    public static boolean isEnable(Square square) {
+    public boolean isEnable(Square square) {
         return square.isEnable();
     }
 
     /**
      * If the current king and rook can perform castling,
-     * sets them to proper position, and does the aftermath.
+     * sets them to proper position.
      * @param king
      *              the square contains the king piece to perform castling
      * @param rook
      *              the square contains the rook piece to perform castling
      * @return whether this castling has been successfully done.
      */
-    public static boolean castling(Square king, Square rook) {
-        if((king.getChess().isRed() && redCastling)
-                || (!king.getChess().isRed() && blueCastling)) {
-            setFirstRoundOff(king, rook);
-            int distance = rook.getCol() - king.getCol();
-            if(distance < 0) {
-                board[king.getCol() - 2][king.getRow()].setChess(king.getChess());
-                king.setChess(null);
-                board[rook.getCol() + 
-                      (Math.abs(distance) == 3 ? 2 : 3)]
-                              [rook.getRow()].setChess(rook.getChess());
-                rook.setChess(null); 
-            } else {
-                board[king.getCol() + 2][king.getRow()].setChess(king.getChess());
-                king.setChess(null);
-                board[rook.getCol() - 
-                      (Math.abs(distance) == 3 ? 2 : 3)]
-                              [rook.getRow()].setChess(rook.getChess());
-                rook.setChess(null); 
-            }
-            redCastling = false;
-            blueCastling = false;
+    public boolean castling(Square king, Square rook) {
+        if(king.getChess() instanceof King && rook.isEnable()) {
+            int from = index(king);
+            makeMove(Move.of(from, from + (rook.getCol() < king.getCol() ? -2 : 2), Move.CASTLING));
             return true;
         }
         return false;
     }
 
     /**
-     * Checks whether pawn has performed a En Passant move.
-     * If yes, does the aftermath by taking off the captured pawn.
+     * Performs the movement on the game position, taking care of
+     * En Passant capture and pawn promotion, then renders the board.
      * @param selectedSquare
      *                  the square contains the chess to be moved
      * @param selecting
      *                  the square the chess to be move to.
      */
-    public static void enPassant(Square selectedSquare, Square selecting) {
-        if(selectedSquare.getChess() != null 
-                && selectedSquare.getChess() instanceof Pawn
-                &&((Pawn)selectedSquare.getChess()).isEnPassant()
-                && selecting.getChess() == null
-                && selecting.getCol() != selectedSquare.getCol()) {
-            board[selecting.getCol()][selectedSquare.getRow()].setChess(null);
-            for (Square[] col : board)
-                for (Square row : col)
-                    if(row.getChess() != null 
-                            && row.getChess() instanceof Pawn)
-                        ((Pawn)row.getChess()).setEnPassant(false);
-        }
-        
+    public void move(Square selectedSquare, Square selecting) {
+        makeMove(toMove(selectedSquare, selecting));
     }
 
     /* Movement Functions */
     
     /**
-     * Checks the chess piece in a square and select the proper
-     * move pattern for them.
-     * Then passes this square and its movements and steps to 
-     * ruleFilterMove function to get the basic rule restricted
-     * movements and returns it.
-     * @param square
-     *              the square contain the chess piece to be checked.
-     * @return movable squares of the chess piece in this square.
+     * Gets all legal moves of the team on this turn from MoveGenerator,
+     * which already takes checks, pins, En Passant and castling into account.
+     * @return packed legal moves.
      */
-    static public ArrayList<Square> getBasicMove(Square square){
-        /* polymorphic call for piece getMovement and getStep,
-         * all pieces have unique move pattern and step
-         * Rule class just filter the basic movement patterns
-         * to perform as a chess game, will not influence anything.
-         * This polymorphic call gives us flexibility to add 
-         * new chess piece with different move pattern.
-         */
-        return getRuleFilteredMove(square, square.getChess().getMovement(), square.getChess().getStep());
+    public int[] getLegalMove() {
+        return context.getLegalMove();
     }
     
     /**
-     * Takes a square and its chess piece's basic movement pattern and steps
-     * and use basic chess rule to search for its movable places.
-     * @param square
-     *              the square contains the chess to be moved.
-     * @param movement
-     *              the basic movement pattern of the chess in this square
-     * @param step
-     *              the step of the chess in this square allowed to move.
-     * @return movable squares of the chess piece in this square.
-     */
-    static private ArrayList<Square> getRuleFilteredMove(Square square, int[][] movement, int step) {
-        int col;
-        int row;
-        Square temp;
-        ArrayList<Square> ableMoves = new ArrayList<Square>(); 
-        for(int i = 0; i < movement.length; i++) {
-            for(int j = 1; j <= step; j++) {
-                temp = null;
-                col = movement[i][0] * j + square.getCol();
-                row = movement[i][1] * j + square.getRow();
-                if(col < 0 || col > 7 || row < 0 || row > 7)
-                    break;
-                temp = board[col][row];
-                if ((temp.getChess() != null && temp.getChess().isRed() == square.getChess().isRed())
-                        || (square.getChess().isRed() == isRedTurn 
-                        && square.getChess() instanceof King 
-                        && getChecker(temp, isRedTurn).size() > 0
-                        || (i < 2 && temp.getChess() == null 
-                        && square.getChess() instanceof Pawn))
-                        || (i == 2 && temp.getChess() != null 
-                        && square.getChess() instanceof Pawn)
-                        || (i < 2 && j > 1 
-                        && square.getChess() instanceof Pawn))
-                    break;
-                else {                    
-                    ableMoves.add(temp);
-                    if(temp.getChess() != null)
-                        break;
-                }
-            }
-        }
-        return ableMoves;
-    }
-    
-    /**
-     * Takes a square and passes it to getBasicMove function
-     * to gets its chess piece's movable squares.
-     * Then filters these movable squares by chess game checking
-     * conditions.
+     * Takes a square and picks the movable squares of its chess piece
+     * out of the legal moves. A castling move is shown on the square
+     * of the rook that castles with the king.
      * @param selecting
      *              the square contains the chess to be moved.
      * @return movable squares filtered by check conditions
      */
-    static public ArrayList<Square> getCheckFilteredMove(Square selecting) {
-        ArrayList<Square> movelist = Rule.getBasicMove(selecting); //<- polymorphic call point 3, go to(Rule line 263)
-        ArrayList<Square> checkers = getChecker(getKing(isRedTurn));
+    public ArrayList<Square> getCheckFilteredMove(Square selecting) {
         ArrayList<Square> filteredMove = new ArrayList<Square>();
-        if(selecting.getChess() != null 
-                && selecting.getChess() instanceof Pawn) {
-            Square enPassantMove = getEnPassantMove(selecting);
-            if(enPassantMove != null)
-                movelist.add(enPassantMove);
-        }
-        if (checkers.size() > 0) {
-            filteredMove.addAll(getCaptureMove(selecting, movelist, checkers));
-            filteredMove.addAll(getBlockMove(selecting, movelist));
-        } else {
-            filteredMove.addAll(avoidSelfCheck(selecting, movelist));
-            filteredMove.addAll(getCastlingMove(selecting));
+        for (long targets = context.getLegalTarget(index(selecting)); targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            filteredMove.add(board[Position.col(to)][Position.row(to)]);
         }
         return filteredMove;
     }
-
-    /**
-     * When king is being checking by enemy team, find out which legal move
-     * of this piece could capture the enemy piece that is checking its king.
-     * @param selecting
-     *              the square contains the chess to be moved.
-     * @param movelist
-     *              movable squares of the chess piece in this square.
-     * @param checkers
-     *              the enemy piece that is checking our king
-     * @return legal capture movement this piece could perform to save its king.
-     */
-    static public ArrayList<Square> getCaptureMove(
-            Square selecting, ArrayList<Square> movelist, ArrayList<Square> checkers){
-        ArrayList<Square> filteredMove = new ArrayList<Square>();
-        for(Square checker : checkers)
-            for(Square move : movelist)
-                if (move == checker)
-                    filteredMove.add(move);
-        return filteredMove;
-    }
-    
-    /**
-     * When king is being checking by enemy team, find out which legal move
-     * of this piece could block the enemy piece that is checking its king.
-     * @param selecting
-     *              the square contains the chess to be moved.
-     * @param movelist
-     *              movable squares of the chess piece in this square.
-     * @return legal block movement this piece could perform to save its king.
-     */
-    static public ArrayList<Square> getBlockMove(
-            Square selecting, ArrayList<Square> movelist){
-        ArrayList<Square> filteredMove = new ArrayList<Square>();
-        ArrayList<Square> checkers = null;
-        Chess holding = selecting.getChess();
-        Chess holding1 = null;
-        selecting.setChess(null);
-        for(int i = movelist.size() - 1; i >= 0; i--) {
-            holding1 = null;
-            if (movelist.get(i).getChess() != null)
-                holding1 = movelist.get(i).getChess();
-            movelist.get(i).setChess(holding);
-            checkers = getChecker(getKing(isRedTurn));
-            movelist.get(i).setChess(holding1);
-            if (checkers.size() == 0)
-                filteredMove.add(movelist.get(i)); 
-        }
-        selecting.setChess(holding);
-        holding = null;
-        return filteredMove;
-    }
-    
-    /**
-     * Filter out the potential movement of this piece could
-     * lead to self check of its king.
-     * @param selecting
-     *              the square contains the chess to be moved.
-     * @param movelist
-     *              movable squares of the chess piece in this square.
-     * @return legal movement which will not cause self check
-     */
-    static public ArrayList<Square> avoidSelfCheck(
-            Square selecting, ArrayList<Square> movelist) {
-        ArrayList<Square> checkers = null;
-        Chess holding = selecting.getChess();
-        Chess holding1 = null;
-        selecting.setChess(null);
-        for(int i = movelist.size() - 1; i >= 0; i--) {
-            holding1 = null;
-            if (movelist.get(i).getChess() != null)
-                holding1 = movelist.get(i).getChess();
-            movelist.get(i).setChess(holding);
-            checkers = getChecker(getKing(isRedTurn));
-            movelist.get(i).setChess(holding1);
-            if (checkers.size() > 0)
-                movelist.remove(i); 
-                
-        }
-        selecting.setChess(holding);
-        holding = null;
-        return movelist;
-    }
     
     /* Special Movement Functions*/
-
+    
     /**
-     * If the current selected square contains a king
-     * and it can perform castling move, return the square of
-     * rooks which can castling with it.
+     * If current selected square contains a pawn that has just reached
+     * the end of its path, pops up a window to let player choose
+     * a piece it could promote to.
      * @param square
      *              the square contains the chess to be moved.
-     * @return the square of rooks which can castling with it.
      */
-    static public ArrayList<Square> getCastlingMove(Square square) {
-        ArrayList<Square> rooks = new ArrayList<Square>();
-        if(square.getChess() instanceof King //filter out other chess, previously moved or is being checked king
-                && ((King)square.getChess()).isFirstRound()
-                && getChecker(square).size() == 0) {
-            rooks = getRook(isRedTurn); //get same color rooks
-            for(int j = rooks.size() - 1; j >= 0; j--) {
-                Square rook = rooks.get(j);
-                if(((Rook)rook.getChess()).isFirstRound() //filter out previously moved or is being checked rook
-                        && getChecker(rook).size() == 0) {
-                    if(rook.getCol() < square.getCol()) { //left rook
-                        for(int i = square.getCol() - 1; i > rook.getCol(); i--) {
-                            Square temp = board[i][square.getRow()];
-                            if (temp.getChess() != null || getChecker(temp, isRedTurn).size() > 0) { //check the path
-                                rooks.remove(j);
-                                break;
-                            }
-                        }
-                    } else {
-                        for(int i = square.getCol() + 1; i < rook.getCol(); i++) {
-                            Square temp = board[i][square.getRow()];
-                            if (temp.getChess() != null || getChecker(temp, isRedTurn).size() > 0) {
-                                rooks.remove(j);
-                                break;
-                            }
-                        }
-                    }           
-                } else {
-                    rooks.remove(j);
-                    continue;
-                }
-            }
-        }
-        if(rooks.size() > 0)
-            if(isRedTurn)
-                redCastling = true;
-            else
-                blueCastling = true;
-        return rooks;
+    public void pawnPromotion(Square square) {
+        Text tips = new Text("You can promote your pawn, please choose from the following: ");
+        tips.setFont(Font.font(null, FontWeight.NORMAL, 13));
+        GridPane pawnPromotion = new GridPane();
+        Button rook = new Button("♖");
+        rook.setPrefSize(100, 100);
+        rook.setFont(Font.font(null, FontWeight.BOLD, 35));
+        rook.setOnAction((event)->{
+            promote(Position.ROOK);
+            Launch.closePopWindow();
+        });
+        Button knight = new Button("♘");
+        knight.setPrefSize(100, 100);
+        knight.setFont(Font.font(null, FontWeight.BOLD, 35));
+        knight.setOnAction((event)->{
+            promote(Position.KNIGHT);
+            Launch.closePopWindow();
+        });
+        Button bishop = new Button("♗");
+        bishop.setPrefSize(100, 100);
+        bishop.setFont(Font.font(null, FontWeight.BOLD, 35));
+        bishop.setOnAction((event)->{
+            promote(Position.BISHOP);
+            Launch.closePopWindow();
+        });
+        Button queen = new Button("♕");
+        queen.setPrefSize(100, 100);
+        queen.setFont(Font.font(null, FontWeight.BOLD, 35));
+        queen.setOnAction((event)->{
+            promote(Position.QUEEN);
+            Launch.closePopWindow();
+        });
+        pawnPromotion.add(tips, 0, 0, 4, 1);
+        pawnPromotion.add(rook, 0, 1);
+        pawnPromotion.add(knight, 1, 1);
+        pawnPromotion.add(bishop, 2, 1);
+        pawnPromotion.add(queen, 3, 1);
+        Launch.popWindow(pawnPromotion, "Pawn Promotion", 400, 120);
     }
     
     /**
-     * If current selected square contain a pawn and it can perform
-     * En Passant move, set its EnPassant to true.
-     * @param square
-     *              the square contains the chess to be moved.
-     */
-    static public void setEnPassant(Square square) {
-        if(square.getChess() != null && square.getChess() instanceof Pawn
-                && square.getChess().isRed() != isRedTurn
-                && (square.getRow() == 4 || square.getRow() == 4))
-            ((Pawn)square.getChess()).setEnPassant(true);
+     * Replaces the last promotion move with the player's choice,
+     * then checks whether it checkmates the enemy team.
+     * If not, lets the computer opponent move.
+     * @param type
+     *              the piece type to promote to.
+     */
+    private void promote(int type) {
+        int move = getPosition().getLastMove();
+        context.unmakeMove();
+        journal(Move.NONE);
+        makeMove(Move.promotion(Move.from(move), Move.to(move), type));
+        if(isCheckmate())
+            win(!isRedTurn());
+        else
+            computerMove();
     }
     
     /**
-     * If current selected square contains a pawn and its EnPassant indicator
-     * is true, return the square it could En Passant move to.
-     * @param square
-     *              the square contains the chess to be moved.
-     * @return the square this pawn could En Passant move to
-     */
-    static public Square getEnPassantMove(Square square) {
-        Square toMove = null;
-        if(((Pawn)square.getChess()).isEnPassant()) {
-            Chess pawn = square.getChess();
-            Square temp;
-            if(pawn.isRed()) {
-                temp = board[square.getCol() - 1][square.getRow()];
-                if(temp.getChess() != null && temp.getChess() instanceof Pawn
-                        && temp.getChess().isRed() != isRedTurn
-                        && ((Pawn) temp.getChess()).isCoundBeEnPassant())
-                    toMove = board[temp.getCol()][temp.getRow() + 1];
-                temp = board[square.getCol() + 1][square.getRow()];
-                if(temp.getChess() != null && temp.getChess() instanceof Pawn
-                        && temp.getChess().isRed() != isRedTurn
-                        && ((Pawn) temp.getChess()).isCoundBeEnPassant())
-                    toMove = board[temp.getCol()][temp.getRow() + 1];
-            } else {
-                temp = board[square.getCol() - 1][square.getRow()];
-                if(temp.getChess() != null && temp.getChess() instanceof Pawn
-                        && temp.getChess().isRed() != isRedTurn
-                        && ((Pawn) temp.getChess()).isCoundBeEnPassant())
-                    toMove = board[temp.getCol()][temp.getRow() - 1];
-                temp = board[square.getCol() + 1][square.getRow()];
-                if(temp.getChess() != null && temp.getChess() instanceof Pawn
-                        && temp.getChess().isRed() != isRedTurn
-                        && ((Pawn) temp.getChess()).isCoundBeEnPassant())
-                    toMove = board[temp.getCol()][temp.getRow() - 1];
-            }
+     * If it is the computer opponent's turn, plays a book move at once,
+     * or else searches a copy of the game position for its best move on
+     * the background thread. The move is then made on the javafx thread.
+     */
+    private void computerMove() {
+        if(computer == null || isRedTurn() != isComputerRed)
+            return;
+        stopPondering();
+        int bookMove = book == null ? Move.NONE : book.pick(getPosition(), random);
+        if(bookMove != Move.NONE) {
+            playComputerMove(getPosition().getKey(), bookMove, new int[0]);
+            return;
         }
-        return toMove;
+        Position searched = new Position(getPosition());
+        searcher.submit(() -> {
+            int move = computer.search(searched, THINK_TIME, Search.MAX_PLY);
+            int[] line = computer.getPrincipalVariation();
+            Platform.runLater(() -> playComputerMove(searched.getKey(), move, line));
+        });
     }
-    
+
     /**
-     * If current selected square contains a pawn and it is at
-     * the end of its path, pops up a window to let player choose
-     * a piece it could promote to.
-     * @param square
-     *              the square contains the chess to be moved.
+     * Makes the computer opponent's move on the javafx thread, checks
+     * whether it checkmates the player, then starts pondering.
+     * @param key
+     *              key of the position the move was searched in.
+     * @param move
+     *              packed move found.
+     * @param line
+     *              principal variation of the search, starting with move.
+     */
+    private void playComputerMove(long key, int move, int[] line) {
+        if(closed || move == Move.NONE || getPosition().getKey() != key)
+            return;
+        makeMove(move);
+        if(isCheckmate())
+            win(!isRedTurn());
+        else if(line.length > 1)
+            ponder(line[1]);
+    }
+
+    /**
+     * Searches the position after the player's expected reply on the
+     * background thread, until the player moves. The result is dropped,
+     * but the computer finds it in its transposition table if the
+     * player does reply as expected.
+     * @param expected
+     *              packed move the player is expected to reply with.
      */
-    static public void pawnPromotion(Square square) {
-        if (square.getChess() != null
-                && square.getChess() instanceof Pawn) {
-            Chess pawn = square.getChess();
-            if(pawn.isRed() && square.getRow() == 7 
-                    || !pawn.isRed() && square.getRow() == 0) {
-                Text tips = new Text("You can promote your pawn, please choose from the following: ");
-                tips.setFont(Font.font(null, FontWeight.NORMAL, 13));
-                GridPane pawnPromotion = new GridPane();
-                Button rook = new Button("♖");
-                rook.setPrefSize(100, 100);
-                rook.setFont(Font.font(null, FontWeight.BOLD, 35));
-                rook.setOnAction((event)->{
-                    square.setChess(new Rook(!isRedTurn));
-                    ((Rook) square.getChess()).setFirstRound(false);
-                    Launch.closePopWindow();
-                });
-                Button knight = new Button("♘");
-                knight.setPrefSize(100, 100);
-                knight.setFont(Font.font(null, FontWeight.BOLD, 35));
-                knight.setOnAction((event)->{
-                    square.setChess(new Knight(!isRedTurn));
-                    Launch.closePopWindow();
-                });
-                Button bishop = new Button("♗");
-                bishop.setPrefSize(100, 100);
-                bishop.setFont(Font.font(null, FontWeight.BOLD, 35));
-                bishop.setOnAction((event)->{
-                    square.setChess(new Bishop(!isRedTurn));
-                    Launch.closePopWindow();
-                });
-                Button queen = new Button("♕");
-                queen.setPrefSize(100, 100);
-                queen.setFont(Font.font(null, FontWeight.BOLD, 35));
-                queen.setOnAction((event)->{
-                    square.setChess(new Queen(!isRedTurn));
-                    Launch.closePopWindow();
-                });
-                pawnPromotion.add(tips, 0, 0, 4, 1);
-                pawnPromotion.add(rook, 0, 1);
-                pawnPromotion.add(knight, 1, 1);
-                pawnPromotion.add(bishop, 2, 1);
-                pawnPromotion.add(queen, 3, 1);
-                Launch.popWindow(pawnPromotion, "Pawn Promotion", 400, 120);
-            }
-        }
+    private void ponder(int expected) {
+        Position pondered = new Position(getPosition());
+        pondered.makeMove(expected);
+        pondering = searcher.submit(() -> computer.search(pondered, PONDER_TIME, Search.MAX_PLY));
     }
     
     /* Referee Functions*/
     
     /**
-     * If the king of the team on this turn is being checking
-     * and it could not move, and none of its team pieces could
-     * kill or block the checker, then sets the opposite team wins.
+     * If the king of the team on this turn is being checked
+     * and none of its team pieces has a legal move left
+     * (could not move, kill or block the checker), then sets
+     * the opposite team wins.
      * @return whether the team on this turn is being checkmated.
      */
-    static public boolean isCheckmate() {
-        ArrayList<Square> checkers = getChecker(getKing(isRedTurn));
-        ArrayList<Square> basicMove = getCheckFilteredMove(getKing(isRedTurn));
-        ArrayList<Square> protectors = getProtector(getKing(isRedTurn));
-        ArrayList<Square> blockers = getBlocker(getKing(isRedTurn));
-        return checkers.size() > 0 && basicMove.size() == 0 && protectors.size() == 0 && blockers.size() == 0;
+    public boolean isCheckmate() {
+        return context.isCheckmate();
     }
     
     /**
@@ -606,7 +465,7 @@ public class Rule {
      * @param isRed
      *              the color of team to set
      */
-    private static void win(boolean isRed) {
+    private void win(boolean isRed) {
         for (Square[] col : board)
             for (Square row : col)
                 row.setDisable(true);
@@ -647,103 +506,25 @@ public class Rule {
 
     /* Helper Functions */
     
-    /**
-     * Sets the moved pieces' first round off.
-     * @param chesses
-     *              the squares contain chess pieces to be set
-     */
-    static public void setFirstRoundOff(Square...chesses) {
-        for(Square chess : chesses)
-            if (chess.getChess() instanceof Pawn
-                    &&((Pawn)chess.getChess()).isFirstRound()) {
-                ((Pawn)chess.getChess()).setFirstRound(false);
-                Square temp;
-                if(chess.getCol() + 1 <= 7) {
-                    temp = board[chess.getCol() + 1][chess.getRow()];
-                    ((Pawn)chess.getChess()).setCoundBeEnPassant(true);
-                    setEnPassant(temp);
-                }
-                if(chess.getCol() - 1 >= 0) {
-                    temp = board[chess.getCol() - 1][chess.getRow()];
-                    ((Pawn)chess.getChess()).setCoundBeEnPassant(true);
-                    setEnPassant(temp);
-                }
-            } else if(chess.getChess() instanceof Rook
-                    && ((Rook)chess.getChess()).isFirstRound())
-                ((Rook)chess.getChess()).setFirstRound(false);
-            else if(chess.getChess() instanceof King
-                    && ((King)chess.getChess()).isFirstRound())
-                ((King)chess.getChess()).setFirstRound(false); 
-    }
-    
-    /**
-     * Searches for which team piece could capture the checker
-     * for its king to save it from checkmate.
-     * @param king
-     *          the square contains king to be search
-     * @return squares of pieces could capture checker and protect its king
-     */
-    static public ArrayList<Square> getProtector(Square king){
-        ArrayList<Square> protectors = new ArrayList<Square>();
-        ArrayList<Square> checkers = getChecker(king);
-        for(Square checker : checkers) {
-            protectors.addAll(getChecker(checker));
-        }
-        return protectors;
-    }
-    
-    /**
-     * Searches for which team piece could block the checker
-     * for its king to save it from checkmate.
-     * @param king
-     *          the square contains king to be search
-     * @return squares of pieces could block checker and protect its king
-     */
-    static public ArrayList<Square> getBlocker(Square king){
-        ArrayList<Square> blockers = new ArrayList<Square>();
-        for (Square[] col : board)
-            for (Square row : col)
-                if (row.getChess() != null 
-                && row.getChess().isRed() == king.getChess().isRed()) {
-                    ArrayList<Square> movelist = getBasicMove(row);
-                    if (getBlockMove(row, movelist).size() > 0)
-                        blockers.add(row);
-                }
-        return blockers;
-    }
-    
     /**
      * Sets the current square enable and highlight it.
      * @param square
      *              the square to be set
      */
-    static public void setEnable(Square square) {
+    public void setEnable(Square square) {
         square.hightLight();
         square.setEnable(true);
     }
 
-    /**
-     * Changes the game turn
-     */
-    public static void setTurn() {
-        isRedTurn = !isRedTurn;  
-    }
-
     /**
      * Gets the square contains king for given team.
      * @param isRed
      *          color of given team
      * @return the square contains king for given team.
      */
-    public static Square getKing(boolean isRed) {
-        Square king = null;
-        for (Square[] col : board)
-            for(Square row : col)
-                if (row.getChess() != null 
-                && row.getChess() instanceof King
-                && row.getChess().isRed() == isRed)
-                    king = row;
-        return king;
+    public Square getKing(boolean isRed) {
+        int king = getPosition().king(isRed ? Position.RED : Position.BLUE);
+        return king == Position.EMPTY ? null : board[Position.col(king)][Position.row(king)];
     }
     
     /**
@@ -752,7 +533,7 @@ public class Rule {
      *          color of given team
      * @return the squares contains rooks for given team.
      */
-    public static ArrayList<Square> getRook(boolean isRed) {
+    public ArrayList<Square> getRook(boolean isRed) {
         ArrayList<Square> rooks = new ArrayList<Square>();
         for (Square[] col : board)
             for(Square row : col)
@@ -764,53 +545,186 @@ public class Rule {
     }
     
     /**
-     * Sets all the given squares enable.
-     * @param ableMoves
-     *              squares to be set
+     * Builds the game position from the chess pieces on the chess board.
+     * Used for test setups and games saved before the position was kept.
+     * @param isRedTurn
+     *              whether the current turn is red team's turn.
+     * @return the position on the chess board.
      */
-    private static void enableAll(ArrayList<Square> ableMoves) {
-        for(Square a : ableMoves)
-            setEnable(a);
+    private Position syncPosition(boolean isRedTurn) {
+        Position synced = new Position();
+        for (Square[] col : board)
+            for (Square row : col)
+                if (row.getChess() != null)
+                    synced.put(toPiece(row.getChess()), Position.square(row.getCol(), row.getRow()));
+        synced.setSide(isRedTurn ? Position.RED : Position.BLUE);
+        synced.setCastling(getCastlingRights(synced, true) | getCastlingRights(synced, false));
+        synced.setEnPassant(getEnPassantSquare(isRedTurn));
+        return synced;
     }
-
+    
     /**
-     * Return the isRedTurn for this Rule.
-     * @return isRedTurn
+     * Renders the game position on the chess board.
+     * Only squares whose chess piece differs are set again.
      */
-    public static boolean isRedTurn() {
-        return isRedTurn;
+    private void render() {
+        for (Square[] col : board)
+            for (Square row : col) {
+                int piece = getPosition().pieceAt(index(row));
+                if (piece == Position.EMPTY ? row.getChess() != null
+                        : row.getChess() == null || toPiece(row.getChess()) != piece)
+                    row.setChess(Chess.create(piece));
+            }
     }
-
+    
+    /**
+     * Makes a movement on the game position and renders it.
+     * @param move
+     *              packed move to make.
+     */
+    private void makeMove(int move) {
+        context.makeMove(move);
+        journal(move);
+        render();
+    }
+    
+    /**
+     * Appends a move to the journal, if there is one. A journal that
+     * cannot be written is dropped, and the game goes on without it.
+     * @param move
+     *              packed move just made, or Move.NONE for taking back the last move.
+     */
+    private void journal(int move) {
+        if(journal == null)
+            return;
+        try {
+            if(move == Move.NONE)
+                journal.takeBack();
+            else
+                journal.append(move);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            journal = null;
+        }
+    }
+    
     /**
-     * Return the redCastling for this Rule.
-     * @return redCastling
+     * Gets the packed move of moving the chess in one square to another,
+     * marking En Passant captures and promoting pawns to queen.
+     * @param selecting
+     *              the square contains the chess to be moved.
+     * @param toMove
+     *              the square the chess to be move to.
+     * @return packed move.
+     */
+    private int toMove(Square selecting, Square toMove) {
+        int from = index(selecting);
+        int to = index(toMove);
+        if (Position.type(getPosition().pieceAt(from)) == Position.PAWN) {
+            if (to == getPosition().getEnPassant())
+                return Move.of(from, to, Move.EN_PASSANT);
+            if (Position.row(to) == 0 || Position.row(to) == 7)
+                return Move.promotion(from, to, Position.QUEEN);
+        }
+        return Move.of(from, to);
+    }
+    
+    /**
+     * Gets the Position square of a square on the chess board.
+     * @param square
+     *              square on the chess board
+     * @return square in Position
      */
-    public static boolean isRedCastling() {
-        return redCastling;
+    private int index(Square square) {
+        return Position.square(square.getCol(), square.getRow());
+    }
+    
+    /**
+     * Gets the Position piece code of a chess piece.
+     * @param chess
+     *              the chess piece
+     * @return piece code in Position
+     */
+    private int toPiece(Chess chess) {
+        return Position.piece(chess.isRed() ? Position.RED : Position.BLUE, chess.getType());
+    }
+    
+    /**
+     * Gets the castling rights of given team from its king and rooks
+     * that have not moved yet.
+     * @param synced
+     *          the position being built from the chess board
+     * @param isRed
+     *          color of given team
+     * @return castling rights in Position
+     */
+    private int getCastlingRights(Position synced, boolean isRed) {
+        int row = isRed ? 0 : 7;
+        int rights = 0;
+        int king = synced.king(isRed ? Position.RED : Position.BLUE);
+        if (king == Position.EMPTY || Position.row(king) != row
+                || !((King) board[Position.col(king)][row].getChess()).isFirstRound())
+            return rights;
+        for (Square rook : getRook(isRed))
+            if (rook.getRow() == row && ((Rook) rook.getChess()).isFirstRound()) {
+                if (rook.getCol() == 0)
+                    rights |= isRed ? Position.RED_CASTLING_A : Position.BLUE_CASTLING_A;
+                else if (rook.getCol() == 7)
+                    rights |= isRed ? Position.RED_CASTLING_H : Position.BLUE_CASTLING_H;
+            }
+        return rights;
+    }
+    
+    /**
+     * Gets the square behind the enemy pawn that has just made its
+     * two square first move.
+     * @param isRedTurn
+     *              whether the current turn is red team's turn.
+     * @return En Passant square in Position, or Position.EMPTY.
+     */
+    private int getEnPassantSquare(boolean isRedTurn) {
+        for (Square[] col : board)
+            for (Square row : col)
+                if (row.getChess() instanceof Pawn
+                        && row.getChess().isRed() != isRedTurn
+                        && ((Pawn) row.getChess()).isCoundBeEnPassant()
+                        && row.getRow() == (row.getChess().isRed() ? 3 : 4))
+                    return Position.square(row.getCol(), row.getChess().isRed() ? 2 : 5);
+        return Position.EMPTY;
+    }
+    
+    /**
+     * Sets all the given squares enable.
+     * @param ableMoves
+     *              squares to be set
+     */
+    private void enableAll(ArrayList<Square> ableMoves) {
+        for(Square a : ableMoves)
+            setEnable(a);
     }
 
     /**
-     * Sets the redCastling for this Rule.
-     * @param redCastling the redCastling to set
+     * Return the position for this Rule.
+     * @return headless position of the game
      */
-    public static void setRedCastling(boolean redCastling) {
-        Rule.redCastling = redCastling;
+    public Position getPosition() {
+        return context.getPosition();
     }
 
     /**
-     * Return the blueCastling for this Rule.
-     * @return blueCastling
+     * Return the context for this Rule.
+     * @return state of the game
      */
-    public static boolean isBlueCastling() {
-        return blueCastling;
+    public GameContext getContext() {
+        return context;
     }
 
     /**
-     * Sets the blueCastling for this Rule.
-     * @param blueCastling the blueCastling to set
+     * Return the isRedTurn for this Rule.
+     * @return isRedTurn
      */
-    public static void setBlueCastling(boolean blueCastling) {
-        Rule.blueCastling = blueCastling;
+    public boolean isRedTurn() {
+        return context.isRedTurn();
     }
 
 }
@@ -0,0 +1,154 @@
+package ver2;
+
+/**
+ *
+ * San.class
+ *
+ * Reads and writes moves in Standard Algebraic Notation (SAN), the
+ * move text of PGN files, e.g. e4, Nxf3, exd6, O-O, e8=Q+.
+ *
+ * Files a to h are columns 0 to 7 and rank n is row 8 - n, as in Fen.
+ * O-O is castling with the rook on file h and O-O-O with the rook on
+ * file a, whichever side of the king it is.
+ *
+ * Reading matches the move against the legal moves of the position,
+ * so it accepts the usual sloppy forms (missing or extra check signs,
+ * 0-0 for O-O, e8Q for e8=Q, needless disambiguation) and allocates
+ * nothing.
+ */
+public class San {
+
+    /**
+     * SAN letter of each piece type, none for pawns.
+     */
+    private static final String PIECES = " NBRQK";
+
+    /**
+     * Finds the legal move a SAN move stands for.
+     * @param position
+     *              the position the move is made in.
+     * @param san
+     *              text holding the move.
+     * @param start
+     *              index of the first character of the move.
+     * @param end
+     *              index after the last character of the move.
+     * @param moves
+     *              array to generate the legal moves in.
+     * @return packed legal move, or Move.NONE if it is not legal or ambiguous.
+     */
+    public static int parse(Position position, CharSequence san, int start, int end, int[] moves) {
+        while (end > start && "+#!?".indexOf(san.charAt(end - 1)) >= 0)
+            end--;
+        int count = MoveGenerator.generate(position, moves);
+        char first = end > start ? san.charAt(start) : ' ';
+        if (first == 'O' || first == '0') {
+            int length = end - start;
+            if (length != 3 && length != 5)
+                return Move.NONE;
+            for (int i = 0; i < count; i++)
+                if (Move.flag(moves[i]) == Move.CASTLING
+                        && (Move.to(moves[i]) > Move.from(moves[i])) == (length == 3))
+                    return moves[i];
+            return Move.NONE;
+        }
+        int promotion = 0;
+        if (end - start > 2 && PIECES.indexOf(san.charAt(end - 1)) > 0) {
+            promotion = PIECES.indexOf(san.charAt(end - 1));
+            end -= san.charAt(end - 2) == '=' ? 2 : 1;
+        }
+        if (end - start < 2)
+            return Move.NONE;
+        int col = san.charAt(end - 2) - 'a';
+        int row = '8' - san.charAt(end - 1);
+        if (col < 0 || col > 7 || row < 0 || row > 7)
+            return Move.NONE;
+        int to = Position.square(col, row);
+        int type = PIECES.indexOf(first);
+        if (type > 0)
+            start++;
+        else
+            type = Position.PAWN;
+        int fromCol = -1;
+        int fromRow = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h')
+                fromCol = c - 'a';
+            else if (c >= '1' && c <= '8')
+                fromRow = '8' - c;
+            else if (c != 'x' && c != '-' && c != ':')
+                return Move.NONE;
+        }
+        int found = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int from = Move.from(move);
+            if (Move.to(move) != to || Move.flag(move) == Move.CASTLING
+                    || Position.type(position.pieceAt(from)) != type || Move.promotion(move) != promotion
+                    || fromCol >= 0 && Position.col(from) != fromCol
+                    || fromRow >= 0 && Position.row(from) != fromRow)
+                continue;
+            if (found != Move.NONE)
+                return Move.NONE;
+            found = move;
+        }
+        return found;
+    }
+
+    /**
+     * Appends the SAN of a legal move to a StringBuilder.
+     * @param position
+     *              the position the move is made in, restored before returning.
+     * @param move
+     *              packed legal move.
+     * @param moves
+     *              array to generate the legal moves in.
+     * @param san
+     *              the StringBuilder to append to.
+     * @return the same StringBuilder.
+     */
+    public static StringBuilder write(Position position, int move, int[] moves, StringBuilder san) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int type = Position.type(position.pieceAt(from));
+        boolean capture = position.pieceAt(to) != Position.EMPTY || Move.flag(move) == Move.EN_PASSANT;
+        if (Move.flag(move) == Move.CASTLING) {
+            san.append(Position.castlingRook(from, to) > from ? "O-O" : "O-O-O");
+        } else {
+            if (type == Position.PAWN) {
+                if (capture)
+                    san.append((char) ('a' + Position.col(from)));
+            } else {
+                san.append(PIECES.charAt(type));
+                boolean ambiguous = false;
+                boolean sameCol = false;
+                boolean sameRow = false;
+                int count = MoveGenerator.generate(position, moves);
+                for (int i = 0; i < count; i++) {
+                    int other = Move.from(moves[i]);
+                    if (Move.to(moves[i]) != to || other == from || position.pieceAt(other) != position.pieceAt(from))
+                        continue;
+                    ambiguous = true;
+                    sameCol |= Position.col(other) == Position.col(from);
+                    sameRow |= Position.row(other) == Position.row(from);
+                }
+                if (ambiguous && (!sameCol || sameRow))
+                    san.append((char) ('a' + Position.col(from)));
+                if (ambiguous && sameCol)
+                    san.append((char) ('8' - Position.row(from)));
+            }
+            if (capture)
+                san.append('x');
+            san.append((char) ('a' + Position.col(to))).append((char) ('8' - Position.row(to)));
+            if (Move.promotion(move) != 0)
+                san.append('=').append(PIECES.charAt(Move.promotion(move)));
+        }
+        position.makeMove(move);
+        if (position.checkers() != 0)
+            san.append(MoveGenerator.hasNoMove(position) ? '#' : '+');
+        position.unmakeMove();
+        return san;
+    }
+
+}
@@ -0,0 +1,621 @@
+package ver2;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * Search.class
+ *
+ * Computer opponent. Searches the headless Position with negamax
+ * alpha-beta and iterative deepening: depth 1, 2, 3 and so on until
+ * the time limit or the node budget runs out, then plays the best
+ * move of the deepest finished iteration.
+ *
+ * Time is given by a TimeControl. No iteration is started after its
+ * soft limit; its hard limit is checked against System.nanoTime()
+ * every 1024 nodes, and a search cut off there still plays the best
+ * move its unfinished iteration has found.
+ *
+ * Once the depth runs out, a quiescence search goes on with captures
+ * and promotions that do not lose material, until the position is
+ * quiet, so no position is judged in the middle of an exchange.
+ *
+ * Results are kept in a TranspositionTable, so every iteration
+ * tries the best move of the previous one first; the other moves are
+ * ordered by MovePicker, with killer moves and a history table learned
+ * from earlier cutoffs. The principal variation (the line both teams
+ * are expected to play) is kept for each iteration.
+ *
+ * With more than one thread the search is Lazy SMP: helper threads
+ * search copies of the same position at the same time, half of them
+ * one iteration ahead, and share the transposition table. They find
+ * each other's results there, so the main thread reaches deeper in
+ * the same time. The deepest finished iteration of any thread is played.
+ *
+ * A search running on a background thread is cancelled by interrupting
+ * that thread (Future.cancel(true)); it stops within a few thousand
+ * nodes and leaves the position as it was.
+ *
+ * With a Tablebase, positions with few enough pieces are scored by
+ * their distance to mate instead of being searched, and a root
+ * position in the tables is played from them at once.
+ */
+public class Search {
+
+    /**
+     * Score above every real score.
+     */
+    public static final int INFINITY = 32000;
+
+    /**
+     * Score of checkmating at the root, less one for every ply to it.
+     */
+    public static final int MATE = 30000;
+
+    /**
+     * Deepest ply the search can reach.
+     */
+    public static final int MAX_PLY = 64;
+
+    /**
+     * Mask of the node counts at which the limits are checked.
+     */
+    private static final int CHECK_INTERVAL = 1023;
+
+    /**
+     * Search results shared by all iterations and searches.
+     */
+    private final TranspositionTable table;
+
+    /**
+     * Number of this thread, 0 for the main thread.
+     */
+    private final int id;
+
+    /**
+     * Stops the helper threads once the main thread is done.
+     */
+    private final AtomicBoolean abort;
+
+    /**
+     * Searches run by the helper threads.
+     */
+    private final Search[] helpers;
+
+    /**
+     * Threads the helpers run on, or null with a single thread.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Endgame tables looked up at the root and in the tree, or null.
+     */
+    private Tablebase tablebase;
+
+    /**
+     * Largest number of nodes each thread may visit in a search.
+     */
+    private long nodeLimit = Long.MAX_VALUE;
+
+    /**
+     * Time of System.nanoTime() the current search started at.
+     */
+    private long start;
+
+    /**
+     * Time after which the current search starts no new iteration, in nanoseconds.
+     */
+    private long softLimit;
+
+    /**
+     * Time after which the current search stops at once, in nanoseconds.
+     */
+    private long hardLimit;
+
+    /**
+     * Number of nodes visited by the current search.
+     */
+    private long nodes;
+
+    /**
+     * Whether the current search has run out of time or nodes.
+     */
+    private boolean stopped;
+
+    /**
+     * Depth of the iteration being searched.
+     */
+    private int rootDepth;
+
+    /**
+     * Move pickers of each ply, so the search allocates nothing.
+     */
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY + 1];
+
+    /**
+     * Two killer moves of each ply: quiet moves that caused a cutoff there.
+     */
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+
+    /**
+     * History score of each piece code moving to each square,
+     * raised whenever such a quiet move causes a cutoff.
+     */
+    private final int[][] history = new int[12][64];
+
+    /**
+     * Principal variations found at each ply (triangular table).
+     */
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+
+    /**
+     * Length of the principal variation found at each ply.
+     */
+    private final int[] pvLength = new int[MAX_PLY + 1];
+
+    /**
+     * Principal variation of the deepest finished iteration.
+     */
+    private int[] line = new int[0];
+
+    /**
+     * Score of the deepest finished iteration.
+     */
+    private int score;
+
+    /**
+     * Depth of the deepest finished iteration.
+     */
+    private int depth;
+
+    /**
+     * Constructs an object of type Search, searching on one thread.
+     * @param table
+     *              transposition table to keep results in.
+     */
+    public Search(TranspositionTable table) {
+        this(table, 1);
+    }
+
+    /**
+     * Constructs an object of type Search.
+     * @param table
+     *              transposition table to keep results in, shared by all threads.
+     * @param threads
+     *              number of threads to search on.
+     */
+    public Search(TranspositionTable table, int threads) {
+        this(table, 0, new AtomicBoolean(), Math.max(0, threads - 1));
+    }
+
+    /**
+     * Constructs an object of type Search for one thread of a search.
+     * @param table
+     *              transposition table shared by all threads.
+     * @param id
+     *              number of the thread, 0 for the main thread.
+     * @param abort
+     *              stop signal shared by all threads.
+     * @param helpers
+     *              number of helper threads to start (main thread only).
+     */
+    private Search(TranspositionTable table, int id, AtomicBoolean abort, int helpers) {
+        this.table = table;
+        this.id = id;
+        this.abort = abort;
+        this.helpers = new Search[helpers];
+        for (int i = 0; i < helpers; i++)
+            this.helpers[i] = new Search(table, i + 1, abort, 0);
+        for (int i = 0; i < pickers.length; i++)
+            pickers[i] = new MovePicker();
+        this.pool = helpers == 0 ? null : Executors.newFixedThreadPool(helpers, (runnable) -> {
+            Thread thread = new Thread(runnable, "search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Searches for the best move of the team to move in a fixed time.
+     * @param position
+     *              the position to search, restored before returning.
+     * @param millis
+     *              time limit in milliseconds.
+     * @param maxDepth
+     *              deepest iteration to search.
+     * @return best move found, or Move.NONE if there is no legal move.
+     */
+    public synchronized int search(Position position, long millis, int maxDepth) {
+        return search(position, new TimeControl(millis), maxDepth);
+    }
+
+    /**
+     * Searches for the best move of the team to move. Searches of one
+     * Search run one at a time, so games can share it: a game's search
+     * starts once the search of a game closed before it has stopped.
+     * @param position
+     *              the position to search, restored before returning.
+     * @param time
+     *              soft and hard time limit of the move.
+     * @param maxDepth
+     *              deepest iteration to search.
+     * @return best move found, or Move.NONE if there is no legal move.
+     */
+    public synchronized int search(Position position, TimeControl time, int maxDepth) {
+        start = System.nanoTime();
+        softLimit = time.getSoftLimit();
+        hardLimit = time.getHardLimit();
+        nodes = 0;
+        stopped = false;
+        line = new int[0];
+        score = 0;
+        depth = 0;
+        for (int[] killer : killers)
+            Arrays.fill(killer, Move.NONE);
+        ageHistory();
+        if (id > 0)
+            return iterate(position, maxDepth);
+        if (tablebase != null) {
+            int move = tablebase.bestMove(position);
+            if (move != Move.NONE) {
+                line = new int[] {move};
+                score = tablebase.probe(position);
+                return move;
+            }
+        }
+        table.newSearch();
+        abort.set(false);
+        Future<?>[] futures = new Future<?>[helpers.length];
+        for (int i = 0; i < helpers.length; i++) {
+            Search helper = helpers[i];
+            Position copy = new Position(position);
+            futures[i] = pool.submit(() -> helper.search(copy, time, maxDepth));
+        }
+        iterate(position, maxDepth);
+        abort.set(true);
+        boolean interrupted = false;
+        for (int i = 0; i < helpers.length; i++) {
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                } catch (ExecutionException exc) {
+                    exc.printStackTrace();
+                    break;
+                }
+            }
+            if (helpers[i].depth > depth) {
+                depth = helpers[i].depth;
+                score = helpers[i].score;
+                line = helpers[i].line;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return line.length == 0 ? Move.NONE : line[0];
+    }
+
+    /**
+     * Runs the iterations of a search, each one ply deeper, until the
+     * time limit, the node budget or maxDepth is reached, or a mate is found.
+     * An iteration cut off by the limits still gives its best move if it
+     * has searched any root move to the end.
+     * @param position
+     *              the position to search, restored before returning.
+     * @param maxDepth
+     *              deepest iteration to search.
+     * @return best move found, or Move.NONE if there is no legal move.
+     */
+    private int iterate(Position position, int maxDepth) {
+        for (rootDepth = 1 + id % 2; rootDepth <= Math.min(maxDepth, MAX_PLY); rootDepth++) {
+            int value = negamax(position, rootDepth, -INFINITY, INFINITY, 0);
+            if (stopped) {
+                if (pvLength[0] > 0)
+                    line = Arrays.copyOf(pv[0], pvLength[0]);
+                break;
+            }
+            score = value;
+            depth = rootDepth;
+            line = Arrays.copyOf(pv[0], pvLength[0]);
+            if (Math.abs(score) >= MATE - MAX_PLY || System.nanoTime() - start >= softLimit)
+                break;
+        }
+        return line.length == 0 ? Move.NONE : line[0];
+    }
+
+    /**
+     * Searches a position with negamax alpha-beta.
+     * @param position
+     *              the position to search.
+     * @param depth
+     *              remaining depth.
+     * @param alpha
+     *              score the team to move is already sure of.
+     * @param beta
+     *              score the enemy team is already sure of.
+     * @param ply
+     *              distance from the root.
+     * @return score from the view of the team to move.
+     */
+    private int negamax(Position position, int depth, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if ((++nodes & CHECK_INTERVAL) == 0 && (rootDepth > 1 || id > 0) && isOutOfLimit())
+            stopped = true;
+        if (stopped)
+            return 0;
+        if (ply > 0 && (position.getHalfmoveClock() >= 100 || position.isRepetition()))
+            return 0;
+        if (ply > 0 && tablebase != null && Long.bitCount(position.occupied()) <= Tablebase.MAX_PIECES) {
+            int value = tablebase.probe(position);
+            if (value != Tablebase.UNKNOWN)
+                return value > 0 ? value - ply : value < 0 ? value + ply : 0;
+        }
+        boolean inCheck = position.checkers() != 0;
+        if (inCheck)
+            depth++;
+        if (depth <= 0)
+            return quiescence(position, alpha, beta, ply);
+        if (ply >= MAX_PLY)
+            return Evaluation.evaluate(position);
+
+        int hashMove = Move.NONE;
+        long entry = table.probe(position.getKey());
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+            int value = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth
+                    && (bound == TranspositionTable.EXACT
+                    || bound == TranspositionTable.LOWER && value >= beta
+                    || bound == TranspositionTable.UPPER && value <= alpha))
+                return value;
+        }
+
+        MovePicker picker = pickers[ply];
+        if (picker.init(position, hashMove, killers[ply], history) == 0)
+            return inCheck ? -MATE + ply : 0;
+
+        int oldAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = Move.NONE;
+        for (int move = picker.next(); move != Move.NONE; move = picker.next()) {
+            position.makeMove(move);
+            int value = -negamax(position, depth - 1, -beta, -alpha, ply + 1);
+            position.unmakeMove();
+            if (stopped)
+                return 0;
+            if (value > best) {
+                best = value;
+                bestMove = move;
+                if (value > alpha) {
+                    alpha = value;
+                    pv[ply][ply] = move;
+                    System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                    pvLength[ply] = pvLength[ply + 1];
+                    if (alpha >= beta) {
+                        if (MovePicker.isQuiet(position, move))
+                            updateQuiet(position, move, depth, ply);
+                        break;
+                    }
+                }
+            }
+        }
+        int bound = best >= beta ? TranspositionTable.LOWER
+                : best > oldAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(position.getKey(), bestMove, toTable(best, ply), depth, bound);
+        return best;
+    }
+
+    /**
+     * Checks whether the search has to stop: the main thread is done,
+     * the search was cancelled, or time or nodes have run out.
+     * @return whether to stop.
+     */
+    private boolean isOutOfLimit() {
+        return abort.get() || Thread.currentThread().isInterrupted()
+                || nodes >= nodeLimit || System.nanoTime() - start >= hardLimit;
+    }
+
+    /**
+     * Searches captures and promotions only, until the position is quiet.
+     * The team to move may also stand pat: keep the static evaluation
+     * instead of capturing. In check, every evasion is searched instead.
+     * @param position
+     *              the position to search.
+     * @param alpha
+     *              score the team to move is already sure of.
+     * @param beta
+     *              score the enemy team is already sure of.
+     * @param ply
+     *              distance from the root.
+     * @return score from the view of the team to move.
+     */
+    private int quiescence(Position position, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if ((++nodes & CHECK_INTERVAL) == 0 && (rootDepth > 1 || id > 0) && isOutOfLimit())
+            stopped = true;
+        if (stopped)
+            return 0;
+        if (ply >= MAX_PLY)
+            return Evaluation.evaluate(position);
+        boolean inCheck = position.checkers() != 0;
+        int best = -INFINITY;
+        MovePicker picker = pickers[ply];
+        if (inCheck) {
+            if (picker.init(position, Move.NONE, killers[ply], history) == 0)
+                return -MATE + ply;
+        } else {
+            best = Evaluation.evaluate(position);
+            if (best >= beta)
+                return best;
+            alpha = Math.max(alpha, best);
+            picker.initCaptures(position);
+        }
+        for (int move = picker.next(); move != Move.NONE; move = picker.next()) {
+            position.makeMove(move);
+            int value = -quiescence(position, -beta, -alpha, ply + 1);
+            position.unmakeMove();
+            if (stopped)
+                return 0;
+            if (value > best) {
+                best = value;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Remembers a quiet move that caused a cutoff as a killer move of
+     * its ply, and raises its history score.
+     * @param position
+     *              the position the move is made in.
+     * @param move
+     *              packed quiet move.
+     * @param depth
+     *              remaining depth of the cutoff, deeper counts more.
+     * @param ply
+     *              distance from the root.
+     */
+    private void updateQuiet(Position position, int move, int depth, int ply) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int[] scores = history[position.pieceAt(Move.from(move))];
+        scores[Move.to(move)] += depth * depth;
+        if (scores[Move.to(move)] >= MovePicker.HISTORY_MAX)
+            ageHistory();
+    }
+
+    /**
+     * Halves all history scores, so older cutoffs count less.
+     */
+    private void ageHistory() {
+        for (int[] scores : history)
+            for (int i = 0; i < scores.length; i++)
+                scores[i] /= 2;
+    }
+
+    /**
+     * Converts a score to be stored in the table: mate scores count
+     * from the stored position instead of from the root.
+     * @param score
+     *              score from the root.
+     * @param ply
+     *              distance from the root.
+     * @return score to store.
+     */
+    private static int toTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score + ply : score <= -MATE + MAX_PLY ? score - ply : score;
+    }
+
+    /**
+     * Converts a score read from the table back to count from the root.
+     * @param score
+     *              stored score.
+     * @param ply
+     *              distance from the root.
+     * @return score from the root.
+     */
+    private static int fromTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score - ply : score <= -MATE + MAX_PLY ? score + ply : score;
+    }
+
+    /**
+     * Sets the nodeLimit for this Search.
+     * @param nodeLimit
+     *              largest number of nodes a search may visit.
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+        for (Search helper : helpers)
+            helper.setNodeLimit(nodeLimit);
+    }
+
+    /**
+     * Sets the tablebase for this Search.
+     * @param tablebase
+     *              endgame tables to play perfectly from, or null for none.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+        for (Search helper : helpers)
+            helper.setTablebase(tablebase);
+    }
+
+    /**
+     * Forgets what earlier games taught this Search, before a new game:
+     * empties the transposition table and the history of every thread.
+     */
+    public synchronized void newGame() {
+        table.clear();
+        for (int[] scores : history)
+            Arrays.fill(scores, 0);
+        for (Search helper : helpers)
+            for (int[] scores : helper.history)
+                Arrays.fill(scores, 0);
+    }
+
+    /**
+     * Stops the helper threads for good, once this Search is no longer used.
+     */
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    /**
+     * Return the principal variation for this Search.
+     * @return moves of the deepest finished iteration's line.
+     */
+    public int[] getPrincipalVariation() {
+        return Arrays.copyOf(line, line.length);
+    }
+
+    /**
+     * Return the score for this Search.
+     * @return score of the best move, from the view of the team to move.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Return the depth for this Search.
+     * @return depth of the deepest finished iteration.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the nodes for this Search.
+     * @return number of nodes visited by the last search, on all threads.
+     */
+    public long getNodes() {
+        long total = nodes;
+        for (Search helper : helpers)
+            total += helper.nodes;
+        return total;
+    }
+
+    /**
+     * Return the number of threads for this Search.
+     * @return threads
+     */
+    public int getThreads() {
+        return helpers.length + 1;
+    }
+
+}
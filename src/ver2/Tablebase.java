@@ -0,0 +1,276 @@
+package ver2;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Tablebase.class
+ *
+ * Endgame tablebases: the distance to mate of every position with a
+ * small set of pieces, built offline by TablebaseGenerator.
+ *
+ * Each set of pieces has one table file, named after its pieces such
+ * as KQvK.dtm (blue team's pieces, then red team's). A table holds one
+ * byte per position, indexed by the side to move and the square of
+ * every piece in the order of the name:
+ * - 0 draw
+ * - odd n the team to move is mated in n - 1 plies
+ * - even n the team to move mates in n - 1 plies
+ * Positions where red team has the pieces of a table's blue team are
+ * looked up with colors swapped and rows mirrored.
+ *
+ * Tables are memory mapped read only the first time they are probed
+ * and shared by every game in the program. They assume no castling
+ * rights and no En Passant capture.
+ */
+public class Tablebase {
+
+    /**
+     * Largest number of pieces, kings included, a table can hold.
+     */
+    public static final int MAX_PIECES = 4;
+
+    /**
+     * Result of probing a position no table holds.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Letter of each piece type in table names.
+     */
+    private static final String LETTERS = "PNBRQK";
+
+    /**
+     * Piece types in the order of table names.
+     */
+    private static final int[] ORDER = {Position.KING, Position.QUEEN, Position.ROOK,
+            Position.BISHOP, Position.KNIGHT, Position.PAWN};
+
+    /**
+     * Stands for a table that does not exist in the table cache.
+     */
+    private static final ByteBuffer MISSING = ByteBuffer.allocate(0);
+
+    /**
+     * Tablebases already opened, by directory.
+     */
+    private static final ConcurrentHashMap<Path, Tablebase> TABLEBASES = new ConcurrentHashMap<Path, Tablebase>();
+
+    /**
+     * Directory of the table files.
+     */
+    private final Path directory;
+
+    /**
+     * Tables already looked for, by name.
+     */
+    private final ConcurrentHashMap<String, ByteBuffer> tables = new ConcurrentHashMap<String, ByteBuffer>();
+
+    /**
+     * Constructs an object of type Tablebase.
+     * @param directory
+     *              directory of the table files.
+     */
+    private Tablebase(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the tablebases of a directory, or returns the ones already opened.
+     * @param directory
+     *              directory of the table files.
+     * @return the shared tablebases.
+     */
+    public static Tablebase open(Path directory) {
+        Path key = directory.toAbsolutePath().normalize();
+        Tablebase tablebase = TABLEBASES.get(key);
+        if (tablebase == null) {
+            tablebase = new Tablebase(key);
+            Tablebase opened = TABLEBASES.putIfAbsent(key, tablebase);
+            if (opened != null)
+                tablebase = opened;
+        }
+        return tablebase;
+    }
+
+    /**
+     * Looks up a position.
+     * @param position
+     *              the position to look up.
+     * @return score from the view of the team to move, as Search scores it
+     *         from this position: Search.MATE less the plies to mate when
+     *         winning, minus that when losing, 0 for a draw, or UNKNOWN.
+     */
+    public int probe(Position position) {
+        long occupied = position.occupied();
+        int enPassant = position.getEnPassant();
+        if (Long.bitCount(occupied) > MAX_PIECES || position.getCastling() != 0
+                || enPassant != Position.EMPTY && (Attacks.pawn(position.getSide() ^ 1, enPassant)
+                & position.pieces(position.getSide(), Position.PAWN)) != 0)
+            return UNKNOWN;
+        if (Long.bitCount(occupied) == 2)
+            return 0;
+        boolean flip = false;
+        String name = name(position, false);
+        ByteBuffer table = table(name);
+        if (table == null) {
+            flip = true;
+            name = name(position, true);
+            table = table(name);
+        }
+        if (table == null)
+            return UNKNOWN;
+        return decode(table.get((int) index(position, name, flip)));
+    }
+
+    /**
+     * Finds the best move of a position: the fastest mate when winning,
+     * the slowest mate when losing, and a drawing move otherwise.
+     * @param position
+     *              the position to look up, restored before returning.
+     * @return packed move, or Move.NONE if any move leads out of the tables.
+     */
+    public int bestMove(Position position) {
+        if (probe(position) == UNKNOWN)
+            return Move.NONE;
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(position, moves);
+        int best = Move.NONE;
+        int bestScore = -Search.INFINITY;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            int score = probe(position);
+            position.unmakeMove();
+            if (score == UNKNOWN)
+                return Move.NONE;
+            if (-score > bestScore) {
+                bestScore = -score;
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Maps a table, or finds it missing.
+     * @param name
+     *              name of the table.
+     * @return the table, or null if there is no such file.
+     */
+    private ByteBuffer table(String name) {
+        ByteBuffer table = tables.get(name);
+        if (table == null) {
+            table = MISSING;
+            Path file = directory.resolve(name + ".dtm");
+            if (Files.exists(file)) {
+                try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r");
+                        FileChannel channel = in.getChannel()) {
+                    table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException exc) {
+                    exc.printStackTrace();
+                }
+            }
+            tables.put(name, table);
+        }
+        return table == MISSING ? null : table;
+    }
+
+    /* Table Functions */
+
+    /**
+     * Converts a table byte into a Search score.
+     * @param value
+     *              table byte.
+     * @return score from the view of the team to move.
+     */
+    static int decode(byte value) {
+        int stored = value & 0xFF;
+        if (stored == 0)
+            return 0;
+        return (stored & 1) != 0 ? -Search.MATE + stored - 1 : Search.MATE - stored + 1;
+    }
+
+    /**
+     * Gets the name of the table holding a position.
+     * @param position
+     *              the position to name.
+     * @param flip
+     *              whether to name it with colors swapped.
+     * @return table name, such as KQvK.
+     */
+    static String name(Position position, boolean flip) {
+        int first = flip ? Position.RED : Position.BLUE;
+        StringBuilder name = new StringBuilder();
+        for (int color : new int[] {first, first ^ 1}) {
+            if (color != first)
+                name.append('v');
+            for (int type : ORDER)
+                for (int i = Long.bitCount(position.pieces(color, type)); i > 0; i--)
+                    name.append(LETTERS.charAt(type));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Gets the pieces of a table, in the order of its name.
+     * @param name
+     *              table name, such as KQvK.
+     * @return piece code of each piece, blue team's first.
+     */
+    static int[] pieces(String name) {
+        int split = name.indexOf('v');
+        int[] pieces = new int[name.length() - 1];
+        for (int i = 0, slot = 0; i < name.length(); i++)
+            if (i != split)
+                pieces[slot++] = Position.piece(i < split ? Position.BLUE : Position.RED,
+                        LETTERS.indexOf(name.charAt(i)));
+        return pieces;
+    }
+
+    /**
+     * Gets the index of a position in its table. Pieces of the same kind
+     * take their slots in order of their squares.
+     * @param position
+     *              the position to look up.
+     * @param name
+     *              name of its table.
+     * @param flip
+     *              whether the table holds it with colors swapped.
+     * @return index in the table.
+     */
+    static long index(Position position, String name, boolean flip) {
+        int[] pieces = pieces(name);
+        int[] squares = new int[pieces.length];
+        for (int slot = 0; slot < pieces.length; ) {
+            int piece = pieces[slot];
+            int color = flip ? Position.color(piece) ^ 1 : Position.color(piece);
+            int start = slot;
+            for (long bits = position.pieces(color, Position.type(piece)); bits != 0; bits &= bits - 1)
+                squares[slot++] = Long.numberOfTrailingZeros(bits) ^ (flip ? 56 : 0);
+            Arrays.sort(squares, start, slot);
+        }
+        return index(flip ? position.getSide() ^ 1 : position.getSide(), squares);
+    }
+
+    /**
+     * Gets the index of the side to move and piece squares in a table.
+     * @param side
+     *              color of the team to move.
+     * @param squares
+     *              square of each piece, in the order of the table name.
+     * @return index in the table.
+     */
+    static long index(int side, int[] squares) {
+        long index = side;
+        for (int square : squares)
+            index = index << 6 | square;
+        return index;
+    }
+
+}
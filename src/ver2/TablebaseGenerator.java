@@ -0,0 +1,435 @@
+package ver2;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ *
+ * TablebaseGenerator.class
+ *
+ * Builds the endgame tables Tablebase probes, by retrograde analysis.
+ *
+ * Every legal position of a table is set up once to find its moves.
+ * Captures and promotions lead into smaller tables, which are built
+ * first and looked up; the other moves stay in the table and are only
+ * counted. Then positions are solved one ply of distance at a time:
+ * - a position is lost in n plies once all its moves lead to positions
+ *   won in under n plies, at least one of them in n - 1
+ * - a position is won in n plies once one of its moves leads to a
+ *   position lost in n - 1 plies
+ * Each newly solved position is followed back to the positions it can
+ * be reached from by taking back one move, so only those are updated.
+ * Positions never solved are draws.
+ *
+ * Tables are built with 4 bytes per position in memory (128 MB for 4
+ * pieces) and written with 1 byte per position. En Passant is not taken
+ * into account, which only matters with pawns on both teams.
+ *
+ * Usage: java ver2.TablebaseGenerator [directory] [table...]
+ * - directory where tables are written (default tablebases)
+ * - table     tables to build, such as KQvK (default KQvK KRvK KPvK KBNvK)
+ */
+public class TablebaseGenerator {
+
+    /**
+     * Default directory of the table files.
+     */
+    public static final String DIRECTORY = "tablebases";
+
+    /**
+     * Tables built when none are given.
+     */
+    private static final String[] DEFAULT_TABLES = {"KQvK", "KRvK", "KPvK", "KBNvK"};
+
+    /**
+     * Piece letters in the order of table names.
+     */
+    private static final String ORDER = "KQRBNP";
+
+    /**
+     * Move count of positions that are illegal or stalemate, never solved.
+     */
+    private static final int UNUSED = 0xFF;
+
+    /**
+     * Directory of the table files.
+     */
+    private final Path directory;
+
+    /**
+     * Tables already built, to look up captures and promotions in.
+     */
+    private final Tablebase tablebase;
+
+    /**
+     * Piece code of each piece of the table being built.
+     */
+    private int[] pieces;
+
+    /**
+     * Square of each piece of the position set up.
+     */
+    private int[] squares;
+
+    /**
+     * Board the positions are set up on.
+     */
+    private final Position position = new Position();
+
+    /**
+     * Legal moves of the position set up.
+     */
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+    /**
+     * Solved value of each position, in the table file encoding, 0 unsolved.
+     */
+    private byte[] result;
+
+    /**
+     * Number of moves of each position not yet known to lose, or UNUSED.
+     */
+    private byte[] count;
+
+    /**
+     * Fastest win of each position found so far, in the table file encoding.
+     */
+    private byte[] win;
+
+    /**
+     * Slowest loss through a capture or promotion of each position,
+     * in the table file encoding.
+     */
+    private byte[] loss;
+
+    /**
+     * Constructs an object of type TablebaseGenerator.
+     * @param directory
+     *              directory the tables are written to.
+     */
+    public TablebaseGenerator(Path directory) {
+        this.directory = directory;
+        tablebase = Tablebase.open(directory);
+    }
+
+    /**
+     * Builds the tables given on the command line.
+     * @param args
+     *              [directory] [table...]
+     * @throws IOException
+     *              if a table cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : DIRECTORY);
+        String[] names = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : DEFAULT_TABLES;
+        Files.createDirectories(directory);
+        TablebaseGenerator generator = new TablebaseGenerator(directory);
+        for (String name : names)
+            generator.generate(name);
+    }
+
+    /**
+     * Builds a table and the smaller tables it leads into, unless they
+     * have been built already.
+     * @param name
+     *              table name, such as KQvK, with up to Tablebase.MAX_PIECES pieces.
+     * @throws IOException
+     *              if a table cannot be written.
+     */
+    public void generate(String name) throws IOException {
+        name = canonical(name);
+        if (name.length() - 1 > Tablebase.MAX_PIECES || name.indexOf('K') != 0
+                || name.indexOf('K', 1) != name.indexOf('v') + 1)
+            throw new IllegalArgumentException("Not a table: " + name);
+        Path file = directory.resolve(name + ".dtm");
+        if (Files.exists(file))
+            return;
+        for (int i = 0; i < name.length(); i++) {
+            char letter = name.charAt(i);
+            if (letter == 'K' || letter == 'v')
+                continue;
+            String smaller = name.substring(0, i) + name.substring(i + 1);
+            if (smaller.length() > 3)
+                generate(smaller);
+            if (letter == 'P')
+                for (char promotion : "QRBN".toCharArray())
+                    generate(name.substring(0, i) + promotion + name.substring(i + 1));
+        }
+        long start = System.currentTimeMillis();
+        byte[] table = build(name);
+        try (RandomAccessFile out = new RandomAccessFile(file.toFile(), "rw");
+                FileChannel channel = out.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.wrap(table);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        System.out.println(name + ": " + table.length + " positions in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Solves every position of a table.
+     * @param name
+     *              table name.
+     * @return the table, one byte per position.
+     */
+    private byte[] build(String name) {
+        pieces = Tablebase.pieces(name);
+        squares = new int[pieces.length];
+        int size = 2 << 6 * pieces.length;
+        result = new byte[size];
+        count = new byte[size];
+        win = new byte[size];
+        loss = new byte[size];
+        int pending = 0;
+        for (int index = 0; index < size; index++) {
+            if (!setUp(index)) {
+                count[index] = (byte) UNUSED;
+                continue;
+            }
+            count[index] = (byte) countMoves(index);
+            pending = Math.max(pending, Math.max(win[index] & 0xFF, loss[index] & 0xFF));
+            clear();
+        }
+        int[] solved = new int[1024];
+        boolean found = true;
+        for (int level = 0; level < 254; level++) {
+            int stored = level + 1;
+            boolean winning = (level & 1) != 0;
+            int total = 0;
+            for (int index = 0; index < size; index++) {
+                if (result[index] != 0 || (count[index] & 0xFF) == UNUSED)
+                    continue;
+                if (winning ? (win[index] & 0xFF) == stored
+                        : count[index] == 0 && win[index] == 0 && (loss[index] & 0xFF) <= stored) {
+                    result[index] = (byte) stored;
+                    if (total == solved.length)
+                        solved = Arrays.copyOf(solved, total * 2);
+                    solved[total++] = index;
+                }
+            }
+            for (int i = 0; i < total; i++)
+                retract(solved[i], winning, stored);
+            if (total == 0 && !found && stored > pending)
+                break;
+            found = total > 0;
+        }
+        byte[] table = result;
+        result = count = win = loss = null;
+        return table;
+    }
+
+    /**
+     * Counts the moves of the position set up that stay in the table,
+     * and looks up those that lead into smaller tables.
+     * @param index
+     *              index of the position.
+     * @return number of moves not known to lose, or UNUSED for a stalemate.
+     */
+    private int countMoves(int index) {
+        int generated = MoveGenerator.generate(position, moves);
+        if (generated == 0)
+            return position.checkers() != 0 ? 0 : UNUSED;
+        int inside = 0;
+        for (int i = 0; i < generated; i++) {
+            if (MovePicker.isQuiet(position, moves[i])) {
+                inside++;
+                continue;
+            }
+            position.makeMove(moves[i]);
+            int score = tablebase.probe(position);
+            position.unmakeMove();
+            if (score == Tablebase.UNKNOWN || score == 0)
+                inside++;
+            else if (score > 0)
+                loss[index] = (byte) Math.max(loss[index] & 0xFF, Search.MATE - score + 2);
+            else if (win[index] == 0 || (win[index] & 0xFF) > score + Search.MATE + 2)
+                win[index] = (byte) (score + Search.MATE + 2);
+        }
+        return inside;
+    }
+
+    /**
+     * Takes back every move leading to a newly solved position, and
+     * updates the unsolved positions it came from.
+     * @param index
+     *              index of the solved position.
+     * @param winning
+     *              whether the team to move wins it.
+     * @param stored
+     *              its value in the table file encoding.
+     */
+    private void retract(int index, boolean winning, int stored) {
+        setUp(index);
+        int side = position.getSide();
+        int mover = side ^ 1;
+        position.setSide(mover);
+        for (int slot = 0; slot < pieces.length; slot++) {
+            int piece = pieces[slot];
+            if (Position.color(piece) != mover)
+                continue;
+            int to = squares[slot];
+            for (long from = retractions(piece, to, position.occupied()); from != 0; from &= from - 1) {
+                int square = Long.numberOfTrailingZeros(from);
+                position.remove(to);
+                position.put(piece, square);
+                if (!position.isChecked(side)) {
+                    squares[slot] = square;
+                    int previous = index(mover);
+                    squares[slot] = to;
+                    if (result[previous] == 0 && (count[previous] & 0xFF) != UNUSED) {
+                        if (winning)
+                            count[previous]--;
+                        else if (win[previous] == 0 || (win[previous] & 0xFF) > stored + 1)
+                            win[previous] = (byte) (stored + 1);
+                    }
+                }
+                position.remove(square);
+                position.put(piece, to);
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Gets the squares a piece can have come from without capturing.
+     * @param piece
+     *              piece code.
+     * @param square
+     *              the square it stands on.
+     * @param occupied
+     *              occupancy of both teams.
+     * @return mask of the squares.
+     */
+    private static long retractions(int piece, int square, long occupied) {
+        switch (Position.type(piece)) {
+            case Position.KNIGHT:
+                return Attacks.knight(square) & ~occupied;
+            case Position.BISHOP:
+                return Attacks.bishop(square, occupied) & ~occupied;
+            case Position.ROOK:
+                return Attacks.rook(square, occupied) & ~occupied;
+            case Position.QUEEN:
+                return Attacks.queen(square, occupied) & ~occupied;
+            case Position.KING:
+                return Attacks.king(square) & ~occupied;
+            default:
+                int back = Position.color(piece) == Position.BLUE ? 8 : -8;
+                int from = square + back;
+                int row = Position.row(from);
+                if (row == 0 || row == 7 || (occupied & 1L << from) != 0)
+                    return 0;
+                long retractions = 1L << from;
+                if (row == (back > 0 ? 5 : 2) && (occupied & 1L << from + back) == 0)
+                    retractions |= 1L << from + back;
+                return retractions;
+        }
+    }
+
+    /**
+     * Sets up the position of an index, if it is legal and its pieces of
+     * the same kind are in order of their squares.
+     * @param index
+     *              index of the position.
+     * @return whether it was set up, leaving the board empty if not.
+     */
+    private boolean setUp(int index) {
+        long occupied = 0;
+        for (int slot = pieces.length - 1; slot >= 0; slot--) {
+            int square = index & 63;
+            index >>>= 6;
+            int row = Position.row(square);
+            if ((occupied & 1L << square) != 0
+                    || Position.type(pieces[slot]) == Position.PAWN && (row == 0 || row == 7)
+                    || slot + 1 < pieces.length && pieces[slot + 1] == pieces[slot] && squares[slot + 1] < square)
+                return false;
+            occupied |= 1L << square;
+            squares[slot] = square;
+        }
+        for (int slot = 0; slot < pieces.length; slot++)
+            position.put(pieces[slot], squares[slot]);
+        position.setSide(index);
+        if (position.isChecked(index ^ 1)) {
+            clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes every piece off the board.
+     */
+    private void clear() {
+        for (int square : squares)
+            position.remove(square);
+    }
+
+    /**
+     * Gets the index of the pieces' squares, with pieces of the same kind
+     * put in order of their squares.
+     * @param side
+     *              color of the team to move.
+     * @return index in the table.
+     */
+    private int index(int side) {
+        int[] sorted = squares.clone();
+        for (int slot = 1; slot < pieces.length; slot++)
+            if (pieces[slot] == pieces[slot - 1] && sorted[slot] < sorted[slot - 1]) {
+                int square = sorted[slot];
+                sorted[slot] = sorted[slot - 1];
+                sorted[slot - 1] = square;
+            }
+        return (int) Tablebase.index(side, sorted);
+    }
+
+    /**
+     * Gets the name of the table holding a set of pieces, with the
+     * stronger team as blue team and pieces in name order.
+     * @param name
+     *              table name, such as KvKQ.
+     * @return table name, such as KQvK.
+     */
+    static String canonical(String name) {
+        String[] teams = name.toUpperCase().split("V", -1);
+        if (teams.length != 2)
+            throw new IllegalArgumentException("Not a table: " + name);
+        for (int i = 0; i < 2; i++) {
+            char[] letters = teams[i].toCharArray();
+            for (char letter : letters)
+                if (ORDER.indexOf(letter) < 0)
+                    throw new IllegalArgumentException("Not a table: " + name);
+            Character[] sorted = new Character[letters.length];
+            for (int j = 0; j < letters.length; j++)
+                sorted[j] = letters[j];
+            Arrays.sort(sorted, (a, b) -> ORDER.indexOf(a) - ORDER.indexOf(b));
+            StringBuilder team = new StringBuilder();
+            for (char letter : sorted)
+                team.append(letter);
+            teams[i] = team.toString();
+        }
+        int strength = material(teams[0]) - material(teams[1]);
+        if (strength < 0 || strength == 0 && teams[0].compareTo(teams[1]) > 0)
+            return teams[1] + "v" + teams[0];
+        return teams[0] + "v" + teams[1];
+    }
+
+    /**
+     * Gets the material of a team's pieces.
+     * @param team
+     *              piece letters.
+     * @return material value in Evaluation.VALUE centipawns.
+     */
+    private static int material(String team) {
+        int material = 0;
+        for (char letter : team.toCharArray())
+            material += Evaluation.VALUE["PNBRQK".indexOf(letter)];
+        return material;
+    }
+
+}
@@ -0,0 +1,88 @@
+package ver2;
+
+/**
+ *
+ * TimeControl.class
+ *
+ * Time budget of one engine move, worked out from the clock.
+ *
+ * The soft limit is the time the move should take: Search does not
+ * start another iteration once it has passed. The hard limit is the
+ * time it may never exceed: Search checks it every few thousand nodes
+ * and then plays the best move found so far. Both are kept under a
+ * configurable ceiling, less a safety margin for the time spent
+ * outside the search.
+ */
+public class TimeControl {
+
+    /**
+     * Time kept back for everything outside the search, in milliseconds.
+     */
+    public static final long OVERHEAD = 10;
+
+    /**
+     * Number of moves the clock is shared out over when the number of
+     * moves to the next time control is not known.
+     */
+    private static final int MOVES_LEFT = 30;
+
+    /**
+     * Time the move should take, in nanoseconds.
+     */
+    private final long softLimit;
+
+    /**
+     * Time the move may never exceed, in nanoseconds.
+     */
+    private final long hardLimit;
+
+    /**
+     * Constructs an object of type TimeControl for a timed game.
+     * @param remaining
+     *              time left on the engine's clock, in milliseconds.
+     * @param increment
+     *              time added to the clock after each move, in milliseconds.
+     * @param movesToGo
+     *              moves to the next time control, or 0 if unknown.
+     * @param ceiling
+     *              latency no move may exceed, in milliseconds, or 0 for none.
+     */
+    public TimeControl(long remaining, long increment, int movesToGo, long ceiling) {
+        long usable = Math.max(1, remaining - OVERHEAD);
+        int movesLeft = movesToGo > 0 ? Math.min(movesToGo, MOVES_LEFT) : MOVES_LEFT;
+        long soft = usable / movesLeft + increment * 3 / 4;
+        long hard = Math.min(soft * 4, usable / 4 + increment);
+        if (ceiling > 0)
+            hard = Math.min(hard, ceiling - OVERHEAD);
+        hard = Math.max(1, Math.min(hard, usable));
+        softLimit = Math.min(soft, hard) * 1000000L;
+        hardLimit = hard * 1000000L;
+    }
+
+    /**
+     * Constructs an object of type TimeControl with a fixed time per move.
+     * @param millis
+     *              time of the move, both soft and hard limit, in milliseconds.
+     */
+    public TimeControl(long millis) {
+        softLimit = Math.max(1, millis) * 1000000L;
+        hardLimit = softLimit;
+    }
+
+    /**
+     * Return the softLimit for this TimeControl.
+     * @return time the move should take, in nanoseconds.
+     */
+    public long getSoftLimit() {
+        return softLimit;
+    }
+
+    /**
+     * Return the hardLimit for this TimeControl.
+     * @return time the move may never exceed, in nanoseconds.
+     */
+    public long getHardLimit() {
+        return hardLimit;
+    }
+
+}
@@ -0,0 +1,241 @@
+package ver2;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * TranspositionTable.class
+ *
+ * Fixed-size hash table of search results keyed by Position.getKey().
+ *
+ * Every entry is two longs in one primitive array: the key XORed with
+ * the data, and the data itself (best move, score, depth, bound type and
+ * search generation). Search threads read and write entries without
+ * locks; an entry torn by two threads writing at once no longer XORs
+ * back to its key, so it is simply seen as a miss.
+ *
+ * Entries are kept in buckets of two. A new result replaces the entry
+ * of the same position, or else the entry that is shallowest or left
+ * over from an older search.
+ */
+public class TranspositionTable {
+
+    /**
+     * Bound types: the score is an upper bound, a lower bound or exact.
+     */
+    public static final int UPPER = 1;
+    public static final int LOWER = 2;
+    public static final int EXACT = 3;
+
+    /**
+     * Number of entries in a bucket.
+     */
+    private static final int BUCKET = 2;
+
+    /**
+     * Bytes used by one entry.
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    /**
+     * Entries, two longs each: key ^ data, data.
+     */
+    private final long[] table;
+
+    /**
+     * Mask from a key to the index of its bucket.
+     */
+    private final long mask;
+
+    /**
+     * Number of the current search, so older entries are replaced first.
+     */
+    private volatile int generation;
+
+    /**
+     * Number of probes, for the hit rate.
+     */
+    private final LongAdder probes = new LongAdder();
+
+    /**
+     * Number of probes that found their position, for the hit rate.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Constructs an object of type TranspositionTable.
+     * @param megabytes
+     *              size of the table, rounded down to a power of two entries.
+     */
+    public TranspositionTable(int megabytes) {
+        long entries = Long.highestOneBit(Math.max(1, (long) megabytes << 20) / ENTRY_BYTES);
+        entries = Math.max(BUCKET, Math.min(entries, 1L << 27));
+        table = new long[(int) entries * 2];
+        mask = entries / BUCKET - 1;
+    }
+
+    /**
+     * Looks up a position.
+     * @param key
+     *              Zobrist key of the position.
+     * @return the entry's data, or 0 if the position is not in the table.
+     */
+    public long probe(long key) {
+        probes.increment();
+        int index = (int) (key & mask) * BUCKET * 2;
+        for (int i = index; i < index + BUCKET * 2; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) {
+                hits.increment();
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result.
+     * @param key
+     *              Zobrist key of the position.
+     * @param move
+     *              best move found, or Move.NONE.
+     * @param score
+     *              score of the position.
+     * @param depth
+     *              depth searched.
+     * @param bound
+     *              UPPER, LOWER or EXACT.
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        int index = (int) (key & mask) * BUCKET * 2;
+        int replace = index;
+        int worst = Integer.MAX_VALUE;
+        for (int i = index; i < index + BUCKET * 2; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key) {
+                if (move == Move.NONE)
+                    move = move(data);
+                replace = i;
+                break;
+            }
+            int value = depth(data) - (generation(data) == generation ? 0 : 256);
+            if (data == 0 || value < worst) {
+                worst = data == 0 ? Integer.MIN_VALUE : value;
+                replace = i;
+            }
+        }
+        long data = pack(move, score, depth, bound, generation);
+        table[replace] = key ^ data;
+        table[replace + 1] = data;
+    }
+
+    /**
+     * Starts a new search, so entries of older searches are replaced first.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 63;
+    }
+
+    /**
+     * Empties the table and resets the hit counters.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        probes.reset();
+        hits.reset();
+    }
+
+    /**
+     * Return the share of probes that found their position.
+     * @return hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long total = probes.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    /**
+     * Return the number of entries in the table.
+     * @return capacity
+     */
+    public int getCapacity() {
+        return table.length / 2;
+    }
+
+    /* Entry Functions */
+
+    /**
+     * Packs an entry's data into a long.
+     * Layout: bits 0-16 move, 17-32 score, 33-40 depth, 41-42 bound,
+     * 43-48 generation. The bound is never 0, so neither is the data.
+     * @param move
+     *              best move found, or Move.NONE.
+     * @param score
+     *              score of the position.
+     * @param depth
+     *              depth searched.
+     * @param bound
+     *              UPPER, LOWER or EXACT.
+     * @param generation
+     *              number of the search storing it.
+     * @return packed data.
+     */
+    private static long pack(int move, int score, int depth, int bound, int generation) {
+        return (move & 0x1FFFFL)
+                | (score & 0xFFFFL) << 17
+                | (long) Math.max(0, Math.min(depth, 255)) << 33
+                | (long) bound << 41
+                | (long) generation << 43;
+    }
+
+    /**
+     * Return the best move of an entry.
+     * @param data
+     *              entry data from probe.
+     * @return packed move, or Move.NONE.
+     */
+    public static int move(long data) {
+        return (int) (data & 0x1FFFF);
+    }
+
+    /**
+     * Return the score of an entry.
+     * @param data
+     *              entry data from probe.
+     * @return score
+     */
+    public static int score(long data) {
+        return (short) (data >>> 17);
+    }
+
+    /**
+     * Return the depth of an entry.
+     * @param data
+     *              entry data from probe.
+     * @return depth searched
+     */
+    public static int depth(long data) {
+        return (int) (data >>> 33 & 255);
+    }
+
+    /**
+     * Return the bound type of an entry.
+     * @param data
+     *              entry data from probe.
+     * @return UPPER, LOWER or EXACT.
+     */
+    public static int bound(long data) {
+        return (int) (data >>> 41 & 3);
+    }
+
+    /**
+     * Return the search generation of an entry.
+     * @param data
+     *              entry data from probe.
+     * @return generation
+     */
+    private static int generation(long data) {
+        return (int) (data >>> 43 & 63);
+    }
+
+}
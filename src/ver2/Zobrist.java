@@ -0,0 +1,122 @@
+package ver2;
+
+/**
+ *
+ * Zobrist.class
+ *
+ * Random 64-bit keys for Zobrist hashing of positions.
+ *
+ * The key of a position is the XOR of the keys of every piece on its
+ * square, the side to move, the castling rights and the En Passant
+ * column. Position keeps its key up to date on every put, remove and
+ * move, so it always works as an O(1) fingerprint of the position.
+ */
+public class Zobrist {
+
+    /**
+     * Keys of each piece code on each square.
+     */
+    private static final long[][] PIECES = new long[12][64];
+
+    /**
+     * Key XORed in when red team is to move.
+     */
+    private static final long RED_TO_MOVE;
+
+    /**
+     * Keys of every combination of castling rights.
+     */
+    private static final long[] CASTLING = new long[16];
+
+    /**
+     * Keys of the column of the En Passant square.
+     */
+    private static final long[] EN_PASSANT = new long[8];
+
+    /**
+     * State of the random generator for keys.
+     * (Fixed seed, so keys are the same on every run and can be stored)
+     */
+    private static long seed = 0x1F2E3D4C5B6A7988L;
+
+    static {
+        for (long[] piece : PIECES)
+            for (int square = 0; square < 64; square++)
+                piece[square] = random();
+        RED_TO_MOVE = random();
+        for (int i = 1; i < CASTLING.length; i++)
+            CASTLING[i] = random();
+        for (int i = 0; i < EN_PASSANT.length; i++)
+            EN_PASSANT[i] = random();
+    }
+
+    /**
+     * Gets the next number of the xorshift64* random generator.
+     * @return random number.
+     */
+    private static long random() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return seed * 2685821657736338717L;
+    }
+
+    /**
+     * Return the key of a piece on a square.
+     * @param piece
+     *              piece code.
+     * @param square
+     *              the square of the piece.
+     * @return key
+     */
+    public static long piece(int piece, int square) {
+        return PIECES[piece][square];
+    }
+
+    /**
+     * Return the key of the side to move.
+     * @param side
+     *              color of the team to move.
+     * @return key, 0 for blue.
+     */
+    public static long side(int side) {
+        return side == Position.RED ? RED_TO_MOVE : 0;
+    }
+
+    /**
+     * Return the key of a set of castling rights.
+     * @param castling
+     *              castling rights.
+     * @return key, 0 for no rights.
+     */
+    public static long castling(int castling) {
+        return CASTLING[castling];
+    }
+
+    /**
+     * Return the key of an En Passant square.
+     * @param enPassant
+     *              En Passant square, or Position.EMPTY.
+     * @return key of its column, 0 for no square.
+     */
+    public static long enPassant(int enPassant) {
+        return enPassant == Position.EMPTY ? 0 : EN_PASSANT[Position.col(enPassant)];
+    }
+
+    /**
+     * Computes the key of a position from scratch (Testing purpose).
+     * @param position
+     *              the position to hash.
+     * @return key
+     */
+    public static long compute(Position position) {
+        long key = side(position.getSide()) ^ castling(position.getCastling())
+                ^ enPassant(position.getEnPassant());
+        for (long pieces = position.occupied(); pieces != 0; pieces &= pieces - 1) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            key ^= piece(position.pieceAt(square), square);
+        }
+        return key;
+    }
+
+}